@@ -0,0 +1,261 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Catalog class
+// One immutable version of the store's catalog: the products in insertion order, the name and id
+// lookups and the search index. ProductStore publishes versions through one volatile field, so a
+// reader picks up a version once and uses it without locks or retries, even while a writer builds the
+// next one. Changes are collected in a Builder and become visible together when it is published.
+final class Catalog {
+    static final Catalog EMPTY = new Catalog(0, new Product[0], Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptyMap(), ProductSearchIndex.EMPTY);
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final long version;
+    private final Product[] products;
+    private final List<Product> productList;
+    // The lookups hold positions in products rather than products, so a version that only replaces
+    // products in place (a reprice) shares them with the version before it.
+    private final Map<String, Integer> byName;
+    // Other products sharing a name with the one in byName, in the order they claimed it.
+    private final Map<String, int[]> sameName;
+    private final Map<Long, Integer> positions;
+    private final ProductSearchIndex searchIndex;
+    // Sorted listings of this version, built on first use.
+    private final Map<ProductPage.SortKey, List<Product>> sorted = new ConcurrentHashMap<>();
+
+    private Catalog(long version, Product[] products, Map<String, Integer> byName, Map<String, int[]> sameName,
+            Map<Long, Integer> positions, ProductSearchIndex searchIndex) {
+        this.version = version;
+        this.products = products;
+        this.productList = Collections.unmodifiableList(Arrays.asList(products));
+        this.byName = byName;
+        this.sameName = sameName;
+        this.positions = positions;
+        this.searchIndex = searchIndex;
+    }
+
+    // Product names are matched case-insensitively and without surrounding spaces, as in the search index.
+    static String normalize(String productName) {
+        return productName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Product> getProducts() {
+        return productList;
+    }
+
+    // The products in the given order. The first call for a sort key sorts a copy, O(N log N); later
+    // calls on the same version reuse it, so paging through a listing does not sort again.
+    public List<Product> sortedBy(ProductPage.SortKey sortKey) {
+        if (sortKey == ProductPage.SortKey.INSERTION) {
+            return productList;
+        }
+        return sorted.computeIfAbsent(sortKey, key -> {
+            Product[] copy = products.clone();
+            Arrays.sort(copy, key.order);
+            return Collections.unmodifiableList(Arrays.asList(copy));
+        });
+    }
+
+    public int size() {
+        return products.length;
+    }
+
+    public Product findByName(String productName) {
+        Integer position = productName == null ? null : byName.get(normalize(productName));
+        return position == null ? null : products[position];
+    }
+
+    public Product findById(long productNumber) {
+        Integer position = positions.get(productNumber);
+        return position == null ? null : products[position];
+    }
+
+    public List<Product> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    // Collects changes against one version. Single-threaded; build() makes the next version and ends
+    // the batch. Each structure is copied from the base version the first time the batch changes it,
+    // so a batch costs one copy of what it touches plus the work per change:
+    //   reprice: the product array, an O(N) memory copy
+    //   rename:  the product array and the name lookup, O(N) hashing
+    //   add:     the product array, the name lookup and the id lookup
+    // The search index copies only the trie paths it changes. Put many changes in one batch to pay for
+    // the copies once.
+    static final class Builder {
+        private final Catalog base;
+        private Product[] products;
+        private int size;
+        private Map<String, Integer> byName;
+        private Map<String, int[]> sameName;
+        private Map<Long, Integer> positions;
+        private final ProductSearchIndex.Editor searchIndex;
+        private final List<Product> added = new ArrayList<>();
+        private final Map<Long, Product> changed = new LinkedHashMap<>();
+
+        private Builder(Catalog base) {
+            this.base = base;
+            this.products = base.products;
+            this.size = base.products.length;
+            this.byName = base.byName;
+            this.sameName = base.sameName;
+            this.positions = base.positions;
+            this.searchIndex = base.searchIndex.edit();
+        }
+
+        // The first product with a name keeps the name lookup; later ones are still listed and searchable,
+        // and take the lookup over in turn if the products before them are renamed.
+        public Builder add(Product product) {
+            int position = size;
+            editableProducts(1)[size++] = product;
+            editablePositions(1).put(product.getProductNumber(), position);
+            claimName(normalize(product.getProductName()), position);
+            searchIndex.add(product);
+            added.add(product);
+            return this;
+        }
+
+        public Builder addAll(Collection<Product> newProducts) {
+            // Sized up front so loading a large catalog does not keep rehashing or regrowing.
+            editableProducts(newProducts.size());
+            editablePositions(newProducts.size());
+            editableByName(newProducts.size());
+            for (Product product : newProducts) {
+                add(product);
+            }
+            return this;
+        }
+
+        // Returns the renamed product, or null if there is no product with that id.
+        public Product rename(long productNumber, String name) {
+            Integer position = positions.get(productNumber);
+            return position == null ? null : replace(position, products[position].withProductName(name));
+        }
+
+        // Returns the repriced product, or null if there is no product with that id.
+        public Product reprice(long productNumber, double price) {
+            Integer position = positions.get(productNumber);
+            return position == null ? null : replace(position, products[position].withProductPrice(price));
+        }
+
+        // Products added in this batch, in order.
+        public List<Product> getAdded() {
+            return added;
+        }
+
+        // Products of the base version renamed or repriced in this batch, as they are now.
+        public Collection<Product> getChanged() {
+            return changed.values();
+        }
+
+        public Catalog build() {
+            Product[] built = products.length == size ? products : Arrays.copyOf(products, size);
+            return new Catalog(base.version + 1, built, byName, sameName, positions, searchIndex.build());
+        }
+
+        // The product array, copied from the base version first and with room for extra more products.
+        private Product[] editableProducts(int extra) {
+            if (products == base.products || size + extra > products.length) {
+                int capacity = size + extra;
+                if (products != base.products) {
+                    capacity = Math.max(capacity, products.length + (products.length >> 1));
+                }
+                products = Arrays.copyOf(products, capacity);
+            }
+            return products;
+        }
+
+        private Map<Long, Integer> editablePositions(int extra) {
+            if (positions == base.positions || extra > positions.size()) {
+                positions = presized(positions, extra);
+            }
+            return positions;
+        }
+
+        private Map<String, Integer> editableByName(int extra) {
+            if (byName == base.byName || extra > byName.size()) {
+                byName = presized(byName, extra);
+            }
+            return byName;
+        }
+
+        private Map<String, int[]> editableSameName() {
+            if (sameName == base.sameName) {
+                sameName = new HashMap<>(sameName);
+            }
+            return sameName;
+        }
+
+        private static <K, V> Map<K, V> presized(Map<K, V> map, int extra) {
+            Map<K, V> sized = new HashMap<>((int) ((map.size() + extra) / 0.75f) + 1);
+            sized.putAll(map);
+            return sized;
+        }
+
+        private void claimName(String name, int position) {
+            if (editableByName(1).putIfAbsent(name, position) != null) {
+                int[] queued = sameName.getOrDefault(name, NO_POSITIONS);
+                int[] grown = Arrays.copyOf(queued, queued.length + 1);
+                grown[queued.length] = position;
+                editableSameName().put(name, grown);
+            }
+        }
+
+        // Gives up the product's claim on its name; if it owned the lookup, the next in line takes over.
+        private void releaseName(String name, int position) {
+            int[] queued = sameName.get(name);
+            if (byName.get(name) == position) {
+                if (queued == null) {
+                    editableByName(1).remove(name);
+                    return;
+                }
+                editableByName(1).put(name, queued[0]);
+                queued = Arrays.copyOfRange(queued, 1, queued.length);
+            } else {
+                int at = 0;
+                while (queued[at] != position) {
+                    at++;
+                }
+                int[] shrunk = new int[queued.length - 1];
+                System.arraycopy(queued, 0, shrunk, 0, at);
+                System.arraycopy(queued, at + 1, shrunk, at, shrunk.length - at);
+                queued = shrunk;
+            }
+            if (queued.length == 0) {
+                editableSameName().remove(name);
+            } else {
+                editableSameName().put(name, queued);
+            }
+        }
+
+        // A product whose name changes only in letter case keeps its place in line for the name.
+        private Product replace(int position, Product replacement) {
+            Product current = products[position];
+            editableProducts(0)[position] = replacement;
+            String oldName = normalize(current.getProductName());
+            String newName = normalize(replacement.getProductName());
+            if (!oldName.equals(newName)) {
+                releaseName(oldName, position);
+                claimName(newName, position);
+            }
+            searchIndex.remove(current).add(replacement);
+            int addedAt = added.indexOf(current);
+            if (addedAt >= 0) {
+                added.set(addedAt, replacement);
+            } else {
+                changed.put(replacement.getProductNumber(), replacement);
+            }
+            return replacement;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// ColumnarProductStore class
+// Alternative to ProductStore for very large catalogs. Instead of one Product object per SKU it keeps
+// ids, prices and stock in primitive columns (struct-of-arrays), optionally off-heap in direct buffers,
+// so the catalog adds almost nothing to GC work and full scans walk memory sequentially.
+class ColumnarProductStore {
+    private final int capacity;
+    private final LongBuffer ids;
+    private final LongBuffer priceMinorUnits;
+    private final DoubleBuffer stock;
+    private final String[] names;
+    private final Map<String, Integer> nameIndex;
+    private final ReentrantLock[] stockLocks;
+    private volatile int size;
+
+    // A column is one buffer of 8-byte values, and a buffer holds at most Integer.MAX_VALUE bytes.
+    ColumnarProductStore(int capacity, boolean offHeap) {
+        if (capacity < 0 || capacity > Integer.MAX_VALUE / 8) {
+            throw new IllegalArgumentException("Capacity must be between 0 and " + Integer.MAX_VALUE / 8 + ".");
+        }
+        this.capacity = capacity;
+        this.ids = allocate(capacity, offHeap).asLongBuffer();
+        this.priceMinorUnits = allocate(capacity, offHeap).asLongBuffer();
+        this.stock = allocate(capacity, offHeap).asDoubleBuffer();
+        this.names = new String[capacity];
+        this.nameIndex = new ConcurrentHashMap<>();
+        this.stockLocks = new ReentrantLock[64];
+        for (int i = 0; i < stockLocks.length; i++) {
+            stockLocks[i] = new ReentrantLock();
+        }
+    }
+
+    // Every column holds 8-byte values, so each one needs capacity * 8 bytes.
+    private static ByteBuffer allocate(int capacity, boolean offHeap) {
+        ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(capacity * 8) : ByteBuffer.allocate(capacity * 8);
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    private static String normalize(String productName) {
+        return productName.toLowerCase(Locale.ROOT);
+    }
+
+    private ReentrantLock stockLock(int row) {
+        return stockLocks[row & (stockLocks.length - 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Columns are filled before size is bumped, so readers never see a half-written row.
+    public synchronized void addProduct(Product items) {
+        if (size == capacity) {
+            throw new ProductError("Product catalog is full.");
+        }
+        int row = size;
+        ids.put(row, items.getProductNumber());
+        priceMinorUnits.put(row, items.getProductPriceMinorUnits());
+        stock.put(row, items.getProductStock());
+        names[row] = items.getProductName();
+        nameIndex.putIfAbsent(normalize(items.getProductName()), row);
+        size = row + 1;
+    }
+
+    public int findRow(String productName) {
+        Integer row = productName == null ? null : nameIndex.get(normalize(productName));
+        return row == null ? -1 : row;
+    }
+
+    // Builds a Product view of one row, for callers such as Order that work with Product objects.
+    public Product getProduct(int row) {
+        return new Product(ids.get(row), names[row],
+                CreditLedger.toAmount(priceMinorUnits.get(row)), stock.get(row));
+    }
+
+    private long priceFor(int row, double quantity) {
+        return Math.round(priceMinorUnits.get(row) * quantity);
+    }
+
+    private void renderRow(StoreRenderer out, int row) {
+        out.product(ids.get(row), names[row], CreditLedger.toAmount(priceMinorUnits.get(row)), stock.get(row));
+    }
+
+    public void getAllProductList() {
+        int rows = size;
+        if (rows == 0) {
+            throw new ProductError("Product list is empty.");
+        }
+        StoreRenderer out = StoreRenderer.stdout();
+        for (int row = 0; row < rows; row++) {
+            renderRow(out, row);
+        }
+        out.flush();
+    }
+
+    public void searchOneProduct(String productName) {
+        int row = findRow(productName);
+        if (row >= 0) {
+            StoreRenderer out = StoreRenderer.stdout();
+            renderRow(out, row);
+            out.flush();
+        } else {
+            System.out.println("Product not found.");
+        }
+    }
+
+    // Total value of the stock on hand, in minor units; reads only the price and stock columns.
+    public long inventoryValueMinorUnits() {
+        int rows = size;
+        long total = 0;
+        for (int row = 0; row < rows; row++) {
+            total += Math.round(priceMinorUnits.get(row) * stock.get(row));
+        }
+        return total;
+    }
+
+    public boolean stockAvailable(String productName, double quantity) {
+        return checkStock(findRow(productName), quantity);
+    }
+
+    public boolean creditsAvailable(Customer customer, String productName, double quantity) {
+        int row = findRow(productName);
+        if (row >= 0 && customer.getCreditLedger().getBalance() >= priceFor(row, quantity)) {
+            return true;
+        }
+        throw new OutOfCredits("Insufficient credits.");
+    }
+
+    private boolean checkStock(int row, double quantity) {
+        if (row >= 0 && stock.get(row) >= quantity) {
+            return true;
+        }
+        throw new OutOfStock("Product is out of stock.");
+    }
+
+    public OrderResult tryPlaceOrder(Customer customer, String productName, double quantity) {
+        if (!OrderResult.isValidQuantity(quantity)) {
+            return OrderResult.INVALID_QUANTITY;
+        }
+        int row = findRow(productName);
+        if (row < 0) {
+            return OrderResult.UNKNOWN_PRODUCT;
+        }
+        if (stock.get(row) < quantity) {
+            return OrderResult.OUT_OF_STOCK;
+        }
+        ReentrantLock lock = stockLock(row);
+        lock.lock();
+        try {
+            if (stock.get(row) < quantity) {
+                return OrderResult.OUT_OF_STOCK;
+            }
+            if (!customer.tryDebit(priceFor(row, quantity))) {
+                return OrderResult.INSUFFICIENT_CREDIT;
+            }
+            stock.put(row, stock.get(row) - quantity);
+        } finally {
+            lock.unlock();
+        }
+        Order order = new Order(customer, getProduct(row), quantity);
+        customer.addOrder(order);
+        return OrderResult.accepted(order);
+    }
+
+    public void placeOrder(Customer customer, String productName, double quantity) {
+        OrderResult result = tryPlaceOrder(customer, productName, quantity);
+        if (result.isAccepted()) {
+            result.getOrder().printInvoice();
+        } else {
+            System.err.println(result.getMessage());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// CustomerRegistry class
+// All known customers, indexed by id, by name and by email so registration and login are single
+// hashed lookups. Names and emails are compared case-insensitively and must be unique; claiming
+// them goes through putIfAbsent, so two concurrent registrations can never both win. Once a
+// write-ahead log is attached, registrations, renames and password changes are logged before they
+// take effect and take the registry's monitor, so the log holds them in the order they happened.
+class CustomerRegistry {
+    enum Registration {
+        REGISTERED, EMAIL_TAKEN, NAME_TAKEN
+    }
+
+    private final Map<Long, Customer> byId = new ConcurrentHashMap<>();
+    private final Map<String, Customer> byName = new ConcurrentHashMap<>();
+    private final Map<String, Customer> byEmail = new ConcurrentHashMap<>();
+    private final OrderArchive archive;
+    private volatile WriteAheadLog writeAheadLog;
+
+    CustomerRegistry() {
+        this(null);
+    }
+
+    // Registered customers spill older orders to the archive; with null they keep every order in memory.
+    CustomerRegistry(OrderArchive archive) {
+        this.archive = archive;
+    }
+
+    // Null when customers keep every order in memory.
+    public OrderArchive getArchive() {
+        return archive;
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Attach after replaying the log, so replayed changes are not logged again.
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    // Runs the action with no registration, rename or password change in progress; a snapshot takes
+    // its cut here so that every logged change is either in the snapshot or after its checkpoint.
+    public synchronized <T> T whileChangesPaused(Supplier<T> action) {
+        return action.get();
+    }
+
+    public Registration register(Customer customer) {
+        long start = StoreMetrics.REGISTER.start();
+        try {
+            WriteAheadLog log = writeAheadLog;
+            if (log == null) {
+                return claim(customer);
+            }
+            return claimLogged(customer, log);
+        } finally {
+            StoreMetrics.REGISTER.stop(start);
+        }
+    }
+
+    // Every logged change holds the monitor, so nothing can take the name or email between the check
+    // and the claim, and a logged registration always succeeds.
+    private synchronized Registration claimLogged(Customer customer, WriteAheadLog log) {
+        if (byEmail.containsKey(normalize(customer.getEmail()))) {
+            return Registration.EMAIL_TAKEN;
+        }
+        if (byName.containsKey(normalize(customer.getCustomerName()))) {
+            return Registration.NAME_TAKEN;
+        }
+        log.logCustomerRegistered(customer);
+        return claim(customer);
+    }
+
+    // The email is claimed first and released again if the name turns out to be taken.
+    private Registration claim(Customer customer) {
+        String email = normalize(customer.getEmail());
+        if (byEmail.putIfAbsent(email, customer) != null) {
+            return Registration.EMAIL_TAKEN;
+        }
+        if (byName.putIfAbsent(normalize(customer.getCustomerName()), customer) != null) {
+            byEmail.remove(email, customer);
+            return Registration.NAME_TAKEN;
+        }
+        byId.put(customer.getCustomerId(), customer);
+        if (archive != null) {
+            customer.getOrderHistory().attach(archive);
+        }
+        return Registration.REGISTERED;
+    }
+
+    // Moves the customer to a new name, failing if another customer already uses it.
+    public boolean rename(Customer customer, String newName) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            return move(customer, newName);
+        }
+        synchronized (this) {
+            Customer owner = byName.get(normalize(newName));
+            if (owner != null && owner != customer) {
+                return false;
+            }
+            log.logCustomerChanged(customer.getCustomerId(), newName, customer.getCustomerPassword());
+            return move(customer, newName);
+        }
+    }
+
+    public void changePassword(Customer customer, String newPassword) {
+        WriteAheadLog log = writeAheadLog;
+        if (log == null) {
+            customer.setCustomerPassword(newPassword);
+            return;
+        }
+        synchronized (this) {
+            log.logCustomerChanged(customer.getCustomerId(), customer.getCustomerName(), newPassword);
+            customer.setCustomerPassword(newPassword);
+        }
+    }
+
+    private boolean move(Customer customer, String newName) {
+        String oldKey = normalize(customer.getCustomerName());
+        String newKey = normalize(newName);
+        if (!oldKey.equals(newKey) && byName.putIfAbsent(newKey, customer) != null) {
+            return false;
+        }
+        customer.setCustomerName(newName);
+        if (!oldKey.equals(newKey)) {
+            byName.remove(oldKey, customer);
+        }
+        return true;
+    }
+
+    public Customer findById(long customerId) {
+        return byId.get(customerId);
+    }
+
+    public Customer findByEmail(String email) {
+        return email == null ? null : byEmail.get(normalize(email));
+    }
+
+    public Customer findByName(String name) {
+        return name == null ? null : byName.get(normalize(name));
+    }
+
+    // The customer if the password matches, otherwise null.
+    public Customer loginByEmail(String email, String password) {
+        long start = StoreMetrics.LOGIN.start();
+        Customer customer = checkPassword(findByEmail(email), password);
+        StoreMetrics.LOGIN.stop(start);
+        return customer;
+    }
+
+    public Customer loginByName(String name, String password) {
+        long start = StoreMetrics.LOGIN.start();
+        Customer customer = checkPassword(findByName(name), password);
+        StoreMetrics.LOGIN.stop(start);
+        return customer;
+    }
+
+    private static Customer checkPassword(Customer customer, String password) {
+        return customer != null && customer.getCustomerPassword().equals(password) ? customer : null;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    // Live, read-only view of every registered customer.
+    public Collection<Customer> getCustomers() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// IdGenerator class
+// Time-ordered 64-bit ids for products, customers and orders, replacing UUID.randomUUID().
+// Layout: 41 bits of milliseconds since 2024-01-01, 10 bits of generator slot, 12 bits of sequence.
+// Threads are spread over the slots and each slot advances on its own with a CAS, so there is no shared lock.
+class IdGenerator {
+    private static final long EPOCH_MILLIS = 1704067200000L;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int SLOT_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    // Slot states are 8 longs (one cache line) apart so threads on neighbouring slots do not false-share.
+    private static final int STRIDE = 8;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // Per slot: the last issued (timestamp << SEQUENCE_BITS | sequence).
+    private static final AtomicLongArray SLOTS = new AtomicLongArray((SLOT_MASK + 1) * STRIDE);
+
+    private IdGenerator() {
+    }
+
+    public static long nextId() {
+        long threadId = Thread.currentThread().getId();
+        int slot = (int) (threadId ^ (threadId >>> SLOT_BITS)) & SLOT_MASK;
+        int index = slot * STRIDE;
+        long next;
+        while (true) {
+            long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+            long last = SLOTS.get(index);
+            // More than 4096 ids in one millisecond simply borrow from the next millisecond,
+            // which keeps ids unique and ordered without waiting for the clock.
+            next = Math.max(now, last + 1);
+            if (SLOTS.compareAndSet(index, last, next)) {
+                break;
+            }
+        }
+        long timestamp = next >>> SEQUENCE_BITS;
+        return (timestamp << (SLOT_BITS + SEQUENCE_BITS)) | ((long) slot << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+    }
+
+    public static long timestampOf(long id) {
+        return (id >>> (SLOT_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    // Fixed-width hex, used only when an id has to be shown to a person.
+    public static String format(long id) {
+        return appendTo(new StringBuilder(16), id).toString();
+    }
+
+    // Same text as format, written straight into the caller's buffer.
+    public static StringBuilder appendTo(StringBuilder out, long id) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            out.append(HEX_DIGITS[(int) (id >>> shift) & 0xF]);
+        }
+        return out;
+    }
+}
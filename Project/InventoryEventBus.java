@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// InventoryEventBus class
+// In-process ring buffer, in the style of the LMAX Disruptor, that tells subscribers about stock
+// changes, placed orders and new products. The ring's events are allocated once and overwritten in
+// place, so publishing allocates nothing: a publisher claims a sequence with one atomic increment,
+// fills that slot and marks it published. Any number of threads may publish.
+//
+// Each subscriber has its own thread and its own sequence, and handles every event in order. It takes
+// all events that are ready as one batch, and the last one is flagged as the end of the batch. A
+// publisher never overwrites a slot that some subscriber has not handled yet. If a subscriber falls a
+// whole ring behind, publishers wait for it, so size the ring for the longest pause you expect.
+class InventoryEventBus implements AutoCloseable {
+    enum Type {
+        STOCK_CHANGED, ORDER_PLACED, PRODUCT_ADDED
+    }
+
+    // One ring slot. Publishers overwrite it once every subscriber has moved past it, so subscribers
+    // must copy out anything they want to keep after onEvent returns.
+    static final class Event {
+        private Type type;
+        private Product product;
+        private double stock;
+        private double delta;
+        private long orderNumber;
+        private long customerId;
+
+        public Type getType() {
+            return type;
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        // Stock left after the change, as seen by the publisher.
+        public double getStock() {
+            return stock;
+        }
+
+        // Signed change in stock; zero for PRODUCT_ADDED.
+        public double getDelta() {
+            return delta;
+        }
+
+        // Set for ORDER_PLACED only.
+        public long getOrderNumber() {
+            return orderNumber;
+        }
+
+        public long getCustomerId() {
+            return customerId;
+        }
+    }
+
+    interface Subscriber {
+        void onEvent(Event event, long sequence, boolean endOfBatch);
+    }
+
+    // How an idle subscriber waits for the next event, from lowest latency to least CPU.
+    enum WaitStrategy {
+        // Spins on one core. For a subscriber that must react within microseconds.
+        BUSY_SPIN,
+        // Spins briefly, then yields the core to other threads between checks.
+        YIELDING,
+        // Spins, yields, then sleeps 100 microseconds between checks.
+        SLEEPING,
+        // Parks until a publisher wakes it. Costs publishers an unpark while the subscriber is idle.
+        BLOCKING;
+
+        void idle(int round) {
+            switch (this) {
+                case BUSY_SPIN:
+                    Thread.onSpinWait();
+                    break;
+                case YIELDING:
+                    if (round < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                    break;
+                default:
+                    if (round < 100) {
+                        Thread.onSpinWait();
+                    } else if (round < 200) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(100_000);
+                    }
+            }
+        }
+    }
+
+    private final class Processor implements Runnable {
+        private final Subscriber subscriber;
+        private final WaitStrategy waitStrategy;
+        // Last sequence this subscriber has finished with.
+        private final AtomicLong sequence;
+        private volatile Thread thread;
+        private volatile boolean parked;
+
+        Processor(Subscriber subscriber, WaitStrategy waitStrategy, long start) {
+            this.subscriber = subscriber;
+            this.waitStrategy = waitStrategy;
+            this.sequence = new AtomicLong(start);
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            long next = sequence.get() + 1;
+            int round = 0;
+            while (true) {
+                long available = highestPublished(next, cursor.get());
+                if (available < next) {
+                    if (!running) {
+                        return;
+                    }
+                    if (waitStrategy == WaitStrategy.BLOCKING && round >= 100) {
+                        parked = true;
+                        // Check again after announcing the park, so a publish in between is not missed.
+                        if (highestPublished(next, cursor.get()) < next && running) {
+                            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                        }
+                        parked = false;
+                    } else {
+                        waitStrategy.idle(round);
+                    }
+                    round++;
+                    continue;
+                }
+                round = 0;
+                for (; next <= available; next++) {
+                    try {
+                        subscriber.onEvent(entries[(int) next & mask], next, next == available);
+                    } catch (RuntimeException e) {
+                        System.err.println("Inventory subscriber failed: " + e.getMessage());
+                    }
+                }
+                sequence.lazySet(available);
+            }
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private final Event[] entries;
+    private final int mask;
+    private final int indexShift;
+    // Per slot, the lap (sequence / ring size) of the event last published there.
+    private final AtomicIntegerArray published;
+    // Highest sequence claimed by a publisher; slots up to it may still be being filled.
+    private final AtomicLong cursor = new AtomicLong(-1);
+    // Lowest subscriber sequence seen by the last publisher that had to check; saves reading every
+    // subscriber on each claim.
+    private volatile long gatingCache = -1;
+    private volatile Processor[] processors = new Processor[0];
+    private volatile boolean running = true;
+
+    InventoryEventBus(int ringSize) {
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two.");
+        }
+        this.entries = new Event[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            entries[i] = new Event();
+        }
+        this.mask = ringSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(ringSize);
+        this.published = new AtomicIntegerArray(ringSize);
+        for (int i = 0; i < ringSize; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    // Starts a daemon thread that feeds the subscriber every event published from now on.
+    public synchronized void subscribe(String name, Subscriber subscriber, WaitStrategy waitStrategy) {
+        if (!running) {
+            throw new IllegalStateException("The event bus is closed.");
+        }
+        Processor processor = new Processor(subscriber, waitStrategy, cursor.get());
+        Processor[] grown = Arrays.copyOf(processors, processors.length + 1);
+        grown[grown.length - 1] = processor;
+        processors = grown;
+        Thread thread = new Thread(processor, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void publishStockChange(Product product, double delta) {
+        long sequence = claim();
+        Event event = entries[(int) sequence & mask];
+        event.type = Type.STOCK_CHANGED;
+        event.product = product;
+        event.stock = product.getProductStock();
+        event.delta = delta;
+        event.orderNumber = 0;
+        event.customerId = 0;
+        publish(sequence);
+    }
+
+    public void publishOrder(Order order, Product product) {
+        long sequence = claim();
+        Event event = entries[(int) sequence & mask];
+        event.type = Type.ORDER_PLACED;
+        event.product = product;
+        event.stock = product.getProductStock();
+        event.delta = -order.getQuantity();
+        event.orderNumber = order.getOrderNumber();
+        event.customerId = order.getCustomerId();
+        publish(sequence);
+    }
+
+    public void publishProductAdded(Product product) {
+        long sequence = claim();
+        Event event = entries[(int) sequence & mask];
+        event.type = Type.PRODUCT_ADDED;
+        event.product = product;
+        event.stock = product.getProductStock();
+        event.delta = 0;
+        event.orderNumber = 0;
+        event.customerId = 0;
+        publish(sequence);
+    }
+
+    // Waits while the slot is still owed to the slowest subscriber.
+    private long claim() {
+        long sequence = cursor.incrementAndGet();
+        long wrapPoint = sequence - entries.length;
+        if (wrapPoint > gatingCache) {
+            long slowest;
+            while (wrapPoint > (slowest = slowestSequence(sequence - 1))) {
+                LockSupport.parkNanos(1_000);
+            }
+            gatingCache = slowest;
+        }
+        return sequence;
+    }
+
+    private void publish(long sequence) {
+        published.lazySet((int) sequence & mask, (int) (sequence >>> indexShift));
+        for (Processor processor : processors) {
+            processor.wake();
+        }
+    }
+
+    private long slowestSequence(long fallback) {
+        long slowest = fallback;
+        for (Processor processor : processors) {
+            slowest = Math.min(slowest, processor.sequence.get());
+        }
+        return slowest;
+    }
+
+    // Publishers finish out of order, so the batch stops at the first slot still being filled.
+    private long highestPublished(long from, long claimed) {
+        for (long sequence = from; sequence <= claimed; sequence++) {
+            if (published.get((int) sequence & mask) != (int) (sequence >>> indexShift)) {
+                return sequence - 1;
+            }
+        }
+        return claimed;
+    }
+
+    public long getCursor() {
+        return cursor.get();
+    }
+
+    // Stops the subscriber threads once they have handled everything already published.
+    @Override
+    public void close() {
+        running = false;
+        for (Processor processor : processors) {
+            LockSupport.unpark(processor.thread);
+        }
+    }
+}
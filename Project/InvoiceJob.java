@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// InvoiceJob class
+// Month-end batch that writes every order of every customer as an invoice, one file per customer named
+// after the customer id. Customers are split into ranges on a fork/join pool; each worker keeps one
+// channel renderer and moves it from file to file, so the only per-file cost is opening the channel.
+// Progress and throughput are reported on a fixed period while the job runs.
+class InvoiceJob {
+    private static final int CUSTOMERS_PER_TASK = 32;
+
+    // Final counts of a finished run.
+    static final class Summary {
+        final long customers;
+        final long invoices;
+        final long bytes;
+        final long elapsedMillis;
+
+        Summary(long customers, long invoices, long bytes, long elapsedMillis) {
+            this.customers = customers;
+            this.invoices = invoices;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1, elapsedMillis) / 1000.0;
+            return String.format("%d invoices for %d customers, %.1f MiB in %.2f s (%.0f invoices/s, %.1f MiB/s)",
+                    invoices, customers, bytes / 1048576.0, seconds, invoices / seconds, bytes / 1048576.0 / seconds);
+        }
+    }
+
+    private final Customer[] customers;
+    private final Path directory;
+    private final InvoiceTemplate template;
+    private final ThreadLocal<StoreRenderer> renderers;
+    private final AtomicLong customersDone = new AtomicLong();
+    private final AtomicLong invoicesDone = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    InvoiceJob(Collection<Customer> customers, Path directory, InvoiceTemplate template) {
+        this.customers = customers.toArray(new Customer[0]);
+        this.directory = directory;
+        this.template = template;
+        // Each worker's renderer starts without a destination; writeInvoices points it at each file in turn.
+        this.renderers = ThreadLocal.withInitial(() -> new StoreRenderer((WritableByteChannel) null));
+    }
+
+    // Runs on a dedicated pool of the given size and prints a progress line every reportMillis.
+    public Summary run(int parallelism, long reportMillis) throws IOException {
+        Files.createDirectories(directory);
+        long start = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "invoice-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(progress(start)), reportMillis, reportMillis,
+                TimeUnit.MILLISECONDS);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new Range(0, customers.length));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            reporter.shutdownNow();
+        }
+        return new Summary(customersDone.get(), invoicesDone.get(), bytesWritten.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private String progress(long start) {
+        double seconds = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) / 1000.0;
+        long invoices = invoicesDone.get();
+        return String.format("Invoices: %d of %d customers, %d invoices, %.0f invoices/s",
+                customersDone.get(), customers.length, invoices, invoices / seconds);
+    }
+
+    private final class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Range(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CUSTOMERS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    writeInvoices(customers[i]);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Range(from, middle), new Range(middle, to));
+        }
+    }
+
+    // Customers without orders get no file.
+    private void writeInvoices(Customer customer) {
+        OrderHistory history = customer.getOrderHistory();
+        long count = history.size();
+        if (count > 0) {
+            Path file = directory.resolve("invoices-" + IdGenerator.format(customer.getCustomerId()) + ".txt");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                StoreRenderer renderer = renderers.get().retarget(channel);
+                history.forEach(count, order -> renderer.invoice(order, template));
+                renderer.flush();
+                bytesWritten.addAndGet(channel.position());
+            } catch (IOException | UncheckedIOException e) {
+                // Drop the renderer so half a file's text never ends up in the next one
+                renderers.remove();
+                throw e instanceof IOException ? new UncheckedIOException("Could not write " + file, (IOException) e)
+                        : (UncheckedIOException) e;
+            }
+            invoicesDone.addAndGet(count);
+        }
+        customersDone.incrementAndGet();
+    }
+
+    // Usage: java InvoiceJob [snapshot file] [output directory] [threads]
+    public static void main(String[] args) throws IOException {
+        Path snapshotFile = Paths.get(args.length > 0 ? args[0] : "store.snapshot");
+        Path directory = Paths.get(args.length > 1 ? args[1] : "invoices");
+        int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        StoreSnapshot snapshot = StoreSnapshot.load(snapshotFile);
+        InvoiceJob job = new InvoiceJob(snapshot.getCustomers(), directory, InvoiceTemplate.DEFAULT);
+        System.out.println("Done: " + job.run(parallelism, 1000));
+    }
+}
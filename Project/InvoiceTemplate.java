@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// InvoiceTemplate class
+// Invoice layout compiled once into alternating literal text and order fields, so rendering an invoice
+// is a run of StringBuilder appends with no parsing, formatting or intermediate strings.
+// Placeholders: {orderNumber} {orderDate} {customerName} {productName} {quantity} {unitPrice}
+// {totalAmount}.
+class InvoiceTemplate {
+    private enum Field {
+        ORDER_NUMBER("orderNumber"),
+        ORDER_DATE("orderDate"),
+        CUSTOMER_NAME("customerName"),
+        PRODUCT_NAME("productName"),
+        QUANTITY("quantity"),
+        UNIT_PRICE("unitPrice"),
+        TOTAL_AMOUNT("totalAmount");
+
+        final String placeholder;
+
+        Field(String placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        static Field of(String placeholder) {
+            for (Field field : values()) {
+                if (field.placeholder.equals(placeholder)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("Unknown invoice placeholder {" + placeholder + "}");
+        }
+    }
+
+    // The layout Order.printInvoice has always used.
+    static final InvoiceTemplate DEFAULT = compile(String.join(System.lineSeparator(),
+            "Invoice:",
+            "Order Number: {orderNumber}",
+            "Order Date: {orderDate}",
+            "Customer Name: {customerName}",
+            "Product Name: {productName}",
+            "Quantity: {quantity}",
+            "Total Amount: {totalAmount}",
+            ""));
+
+    // literals[i] is written before fields[i]; the last literal follows the last field.
+    private final String[] literals;
+    private final Field[] fields;
+
+    private InvoiceTemplate(String[] literals, Field[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+    }
+
+    public static InvoiceTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int open = template.indexOf('{', start);
+            if (open < 0) {
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at position " + open);
+            }
+            literals.add(template.substring(start, open));
+            fields.add(Field.of(template.substring(open + 1, close)));
+            start = close + 1;
+        }
+        literals.add(template.substring(start));
+        return new InvoiceTemplate(literals.toArray(new String[0]), fields.toArray(new Field[0]));
+    }
+
+    public void appendTo(StringBuilder text, Order order) {
+        for (int i = 0; i < fields.length; i++) {
+            text.append(literals[i]);
+            switch (fields[i]) {
+                case ORDER_NUMBER:
+                    IdGenerator.appendTo(text, order.getOrderNumber());
+                    break;
+                case ORDER_DATE:
+                    text.append(order.getOrderDate());
+                    break;
+                case CUSTOMER_NAME:
+                    text.append(order.getCustomerName());
+                    break;
+                case PRODUCT_NAME:
+                    text.append(order.getProductName());
+                    break;
+                case QUANTITY:
+                    text.append(order.getQuantity());
+                    break;
+                case UNIT_PRICE:
+                    text.append(order.getUnitPrice());
+                    break;
+                case TOTAL_AMOUNT:
+                    text.append(order.getTotalAmount());
+                    break;
+            }
+        }
+        text.append(literals[fields.length]);
+    }
+}
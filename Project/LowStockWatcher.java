@@ -0,0 +1,55 @@
+import java.util.HashSet;
+import java.util.Set;
+
+// LowStockWatcher class
+// Inventory subscriber that reports a product once when its stock drops below the watermark, and once
+// more when it is restocked to the watermark or above. Between the two it stays quiet, however many
+// orders come in. It runs on its subscriber thread only, so its state needs no locking.
+class LowStockWatcher implements InventoryEventBus.Subscriber {
+    interface Listener {
+        void onLowStock(Product product, double stock);
+
+        void onRestocked(Product product, double stock);
+    }
+
+    private final double watermark;
+    private final Listener listener;
+    private final Set<Long> low = new HashSet<>();
+
+    LowStockWatcher(double watermark, Listener listener) {
+        this.watermark = watermark;
+        this.listener = listener;
+    }
+
+    // Prints both kinds of report to standard error.
+    static LowStockWatcher printing(double watermark) {
+        return new LowStockWatcher(watermark, new Listener() {
+            @Override
+            public void onLowStock(Product product, double stock) {
+                System.err.println("Low stock: " + product.getProductName() + " has " + stock + " left.");
+            }
+
+            @Override
+            public void onRestocked(Product product, double stock) {
+                System.err.println("Restocked: " + product.getProductName() + " has " + stock + " in stock.");
+            }
+        });
+    }
+
+    @Override
+    public void onEvent(InventoryEventBus.Event event, long sequence, boolean endOfBatch) {
+        Product product = event.getProduct();
+        double stock = event.getStock();
+        if (stock < watermark) {
+            if (low.add(product.getProductNumber())) {
+                listener.onLowStock(product, stock);
+            }
+        } else if (low.remove(product.getProductNumber())) {
+            listener.onRestocked(product, stock);
+        }
+    }
+
+    public double getWatermark() {
+        return watermark;
+    }
+}
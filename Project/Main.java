@@ -56,6 +56,10 @@ class Customer {
         return customerName;
     }
 
+    public String getCustomerPassword() {
+        return customerPassword;
+    }
+
     public void addOrder(String order) {
         orders.add(order);
     }
@@ -107,13 +111,25 @@ class Products {
 
 class ProductStore {
     private List<Products> productList;
+    private Map<String, Products> productIndex;
 
     ProductStore() {
         productList = new ArrayList<>();
+        productIndex = new HashMap<>();
     }
 
     public void addProduct(Products items) {
         productList.add(items);
+        productIndex.putIfAbsent(normalize(items.getProductName()), items);
+    }
+
+    // Product names are matched case-insensitively, so the index is keyed by the lower-cased name.
+    private static String normalize(String productName) {
+        return productName.toLowerCase(Locale.ROOT);
+    }
+
+    public Products findProduct(String productName) {
+        return productName == null ? null : productIndex.get(normalize(productName));
     }
 
     public void getAllProductList() {
@@ -130,59 +146,88 @@ class ProductStore {
     }
 
     public void searchOneProduct(String productName) {
-        boolean found = false;
-        for (Products product : productList) {
-            if (product.getProductName().equalsIgnoreCase(productName)) {
-                System.out.println("Product Id: " + product.getProductNumber() +
-                        " Product Name: " + product.getProductName() +
-                        " Product Price: " + product.getProductPrice() +
-                        " Product stock: " + product.getProductStock());
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
+        Products product = findProduct(productName);
+        if (product != null) {
+            System.out.println("Product Id: " + product.getProductNumber() +
+                    " Product Name: " + product.getProductName() +
+                    " Product Price: " + product.getProductPrice() +
+                    " Product stock: " + product.getProductStock());
+        } else {
             System.out.println("Product not found.");
         }
     }
 
     public boolean stockAvailable(String productName, double quantity) {
-        for (Products product : productList) {
-            if (product.getProductName().equalsIgnoreCase(productName) && product.getProductStock() >= quantity) {
-                return true;
-            }
+        return checkStock(findProduct(productName), quantity);
+    }
+
+    public boolean creditsAvailable(Customer customer, String productName, double quantity) {
+        return checkCredits(customer, findProduct(productName), quantity);
+    }
+
+    private boolean checkStock(Products product, double quantity) {
+        if (product != null && product.getProductStock() >= quantity) {
+            return true;
         }
         throw new OutOfStock("Product is out of stock.");
     }
 
-    public boolean creditsAvailable(Customer customer, String productName, double quantity) {
-        for (Products product : productList) {
-            if (product.getProductName().equalsIgnoreCase(productName) && customer.getCredit() >= product.getProductPrice() * quantity) {
-                return true;
-            }
+    private boolean checkCredits(Customer customer, Products product, double quantity) {
+        if (product != null && customer.getCredit() >= product.getProductPrice() * quantity) {
+            return true;
         }
         throw new OutOfCredits("Insufficient credits.");
     }
 
     public void getOrderPlaced(Customer customer, String productName, double quantity) {
         try {
-            if (stockAvailable(productName, quantity) && creditsAvailable(customer, productName, quantity)) {
-                for (Products product : productList) {
-                    if (product.getProductName().equalsIgnoreCase(productName)) {
-                        product.setProductStock(product.getProductStock() - quantity);
-                        customer.setCredit(customer.getCredit() - product.getProductPrice() * quantity);
-                        String orderDetails = String.format("Order placed: %s x %.2f at %.2f each. Total: %.2f",
-                                productName, quantity, product.getProductPrice(), product.getProductPrice() * quantity);
-                        customer.addOrder(orderDetails);
-                        System.out.println(orderDetails);
-                        return;
-                    }
-                }
+            Products product = findProduct(productName);
+            if (checkStock(product, quantity) && checkCredits(customer, product, quantity)) {
+                product.setProductStock(product.getProductStock() - quantity);
+                customer.setCredit(customer.getCredit() - product.getProductPrice() * quantity);
+                String orderDetails = String.format("Order placed: %s x %.2f at %.2f each. Total: %.2f",
+                        productName, quantity, product.getProductPrice(), product.getProductPrice() * quantity);
+                customer.addOrder(orderDetails);
+                System.out.println(orderDetails);
             }
         } catch (OutOfStock | OutOfCredits e) {
             System.err.println(e.getMessage());
         }
     }
+
+    // Commits every line of the cart or none of them: one pass checks the stock of each line and the
+    // credit for the whole total, and only then are all lines applied.
+    public void checkout(Customer customer, Map<String, Double> cart) {
+        if (cart.isEmpty()) {
+            System.out.println("Your cart is empty.");
+            return;
+        }
+        try {
+            double total = 0;
+            for (Map.Entry<String, Double> line : cart.entrySet()) {
+                Products product = findProduct(line.getKey());
+                checkStock(product, line.getValue());
+                total += product.getProductPrice() * line.getValue();
+            }
+            if (customer.getCredit() < total) {
+                throw new OutOfCredits("Insufficient credits.");
+            }
+            for (Map.Entry<String, Double> line : cart.entrySet()) {
+                Products product = findProduct(line.getKey());
+                double quantity = line.getValue();
+                product.setProductStock(product.getProductStock() - quantity);
+                String orderDetails = String.format("Order placed: %s x %.2f at %.2f each. Total: %.2f",
+                        product.getProductName(), quantity, product.getProductPrice(), product.getProductPrice() * quantity);
+                customer.addOrder(orderDetails);
+                System.out.println(orderDetails);
+            }
+            customer.setCredit(customer.getCredit() - total);
+            System.out.println(String.format("Cart total: %.2f", total));
+            cart.clear();
+        } catch (OutOfStock | OutOfCredits e) {
+            System.err.println(e.getMessage());
+        }
+    }
 }
 
 public class Main {
@@ -201,8 +246,12 @@ public class Main {
         store.addProduct(p4);
         store.addProduct(p5);
 
-        Map<Customer, String> customers = new HashMap<>();
+        // Customers by trimmed, lower-cased name and email, so registration and login are one lookup each
+        Map<String, Customer> customersByName = new HashMap<>();
+        Map<String, Customer> customersByEmail = new HashMap<>();
         Customer currentCustomer = null;
+        // Cart lines by lower-cased product name, so adding a product again grows its line
+        Map<String, Double> cart = new LinkedHashMap<>();
         Scanner sc = new Scanner(System.in);
         int choiceNumber;
         do {
@@ -215,6 +264,7 @@ public class Main {
             System.out.println("6. Log In");
             System.out.println("7. View Account Details");
             System.out.println("8. Checkout");
+            System.out.println("9. Add a Product to the Cart");
             System.out.println("Enter 0 to Exit");
             System.out.println("Please enter your choice: ");
 
@@ -267,25 +317,23 @@ public class Main {
                 case 5:
                     System.out.println("Enter your name to register:");
                     String customerName = sc.nextLine();
-                    boolean isCustomerPresent = false;
-                    for (Customer customer : customers.keySet()) {
-                        if (customer.getCustomerName().equalsIgnoreCase(customerName)) {
-                            isCustomerPresent = true;
-                            break;
-                        }
-                    }
-                    if (isCustomerPresent) {
+                    if (customersByName.containsKey(customerName.trim().toLowerCase(Locale.ROOT))) {
                         System.out.println("This customer already exists. Please log in.");
                     } else {
                         System.out.println("Enter your password:");
                         String password = sc.nextLine();
                         System.out.println("Enter your email address:");
                         String email = sc.nextLine();
+                        if (customersByEmail.containsKey(email.trim().toLowerCase(Locale.ROOT))) {
+                            System.out.println("This email address is already registered. Please log in.");
+                            break;
+                        }
                         System.out.println("Enter the initial credit amount:");
                         double initialCredits = sc.nextDouble();
                         sc.nextLine();
                         Customer newCustomer = new Customer(UUID.randomUUID().toString(), customerName, password, initialCredits, email);
-                        customers.put(newCustomer, password);
+                        customersByName.put(customerName.trim().toLowerCase(Locale.ROOT), newCustomer);
+                        customersByEmail.put(email.trim().toLowerCase(Locale.ROOT), newCustomer);
                         currentCustomer = newCustomer;
                         System.out.println("Registration successful! You are now logged in as: " + currentCustomer.getCustomerName());
                     }
@@ -296,17 +344,11 @@ public class Main {
                     customerName = sc.nextLine();
                     System.out.println("Enter your password:");
                     String providedPassword = sc.nextLine();
-                    boolean isLoggedIn = false;
-                    for (Customer customer : customers.keySet()) {
-                        if (customer.getCustomerName().equalsIgnoreCase(customerName) &&
-                                customers.get(customer).equals(providedPassword)) {
-                            currentCustomer = customer;
-                            isLoggedIn = true;
-                            System.out.println("Logged in successfully as: " + currentCustomer.getCustomerName());
-                            break;
-                        }
-                    }
-                    if (!isLoggedIn) {
+                    Customer customer = customersByName.get(customerName.trim().toLowerCase(Locale.ROOT));
+                    if (customer != null && customer.getCustomerPassword().equals(providedPassword)) {
+                        currentCustomer = customer;
+                        System.out.println("Logged in successfully as: " + currentCustomer.getCustomerName());
+                    } else {
                         System.out.println("Incorrect name or password. Please try again.");
                     }
                     break;
@@ -322,14 +364,24 @@ public class Main {
                     break;
 
                 case 8:
-                    // Assuming checkout functionality is similar to viewing orders and then exiting.
                     if (currentCustomer == null) {
                         System.out.println("Please sign in to proceed with checkout.");
                     } else {
-                        System.out.println("Generating invoice...");
-                        currentCustomer.myOrders();
-                        // In a real scenario, you might want to generate a detailed invoice here.
-                        System.out.println("Thank you for shopping with us. Have a great day!");
+                        store.checkout(currentCustomer, cart);
+                    }
+                    break;
+
+                case 9:
+                    if (currentCustomer == null) {
+                        System.out.println("Please sign in. You are an unauthorized user!");
+                    } else {
+                        System.out.println("Please enter Product Name:");
+                        String cartProductName = sc.nextLine();
+                        System.out.println("Please enter product quantity (quantity >= 0):");
+                        double cartQuantity = sc.nextDouble();
+                        sc.nextLine();
+                        cart.merge(cartProductName.toLowerCase(Locale.ROOT), cartQuantity, Double::sum);
+                        System.out.println("Added to cart.");
                     }
                     break;
 
@@ -338,7 +390,7 @@ public class Main {
                     break;
 
                 default:
-                    System.out.println("Invalid option selected. Please enter a number between 0 and 8.");
+                    System.out.println("Invalid option selected. Please enter a number between 0 and 9.");
                     break;
             }
         } while (choiceNumber != 0);
@@ -1,16 +1,28 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import java.time.LocalDate;
 
 // Custom exceptions
 class OutOfStock extends RuntimeException {
+    // Created without a stack trace; rejected orders are routine, not programming errors.
     public OutOfStock(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
 
 class OutOfCredits extends RuntimeException {
+    // Created without a stack trace; rejected orders are routine, not programming errors.
     public OutOfCredits(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
 
@@ -20,25 +32,67 @@ class ProductError extends RuntimeException {
     }
 }
 
+// CreditLedger class
+// Balances are kept in minor units (cents) so repeated debits never accumulate floating-point error.
+class CreditLedger {
+    private final AtomicLong balance;
+
+    CreditLedger(long initialBalance) {
+        this.balance = new AtomicLong(initialBalance);
+    }
+
+    public static long toMinorUnits(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    public static double toAmount(long minorUnits) {
+        return minorUnits / 100.0;
+    }
+
+    public long getBalance() {
+        return balance.get();
+    }
+
+    public void setBalance(long minorUnits) {
+        balance.set(minorUnits);
+    }
+
+    // Deducts the amount only if the balance covers it; retries when another debit lands in between.
+    public boolean tryDebit(long minorUnits) {
+        long current;
+        do {
+            current = balance.get();
+            if (current < minorUnits) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - minorUnits));
+        return true;
+    }
+
+    public long credit(long minorUnits) {
+        return balance.addAndGet(minorUnits);
+    }
+}
+
 // Customer class
 class Customer {
-    private final String customerId;
+    private final long customerId;
     private String customerName;
     private String customerPassword;
-    private double credit;
+    private final CreditLedger credit;
     private String email;
-    private List<Order> orders;
+    private final OrderHistory orders;
 
-    Customer(String customerId, String customerName, String customerPassword, double credit, String email) {
+    Customer(long customerId, String customerName, String customerPassword, double credit, String email) {
         this.customerId = customerId;
         this.customerName = customerName;
         this.customerPassword = customerPassword;
-        this.credit = credit;
+        this.credit = new CreditLedger(CreditLedger.toMinorUnits(credit));
         this.email = email;
-        this.orders = new ArrayList<>();
+        this.orders = new OrderHistory();
     }
 
-    public String getCustomerId() {
+    public long getCustomerId() {
         return customerId;
     }
 
@@ -63,37 +117,74 @@ class Customer {
     }
 
     public void setCredit(double val) {
-        credit = val;
+        credit.setBalance(CreditLedger.toMinorUnits(val));
     }
 
     public double getCredit() {
+        return CreditLedger.toAmount(credit.getBalance());
+    }
+
+    public CreditLedger getCreditLedger() {
         return credit;
     }
 
+    // Checks and deducts the amount in one step so concurrent orders cannot both spend the same credit.
+    public boolean tryDebit(long minorUnits) {
+        return credit.tryDebit(minorUnits);
+    }
+
     public void addOrder(Order order) {
         orders.add(order);
     }
 
-    public List<Order> getOrders() {
+    public OrderHistory getOrderHistory() {
         return orders;
     }
 }
 
 // Product class
+// Name and price never change on a Product; renaming or repricing makes a new Product for the next
+// catalog version. The stock counters are shared by every version of the same product, so an order
+// taken through an older version still draws down the one real stock.
 class Product {
-    private final String productNumber;
-    private String productName;
+    // Written only while holding the product's stock lock in ProductStore; volatile so listings see fresh values.
+    // Reserved units have already left available and wait in reserved until they are bought or released.
+    private static final class Stock {
+        volatile double available;
+        volatile double reserved;
+
+        Stock(double available) {
+            this.available = available;
+        }
+    }
+
+    private final long productNumber;
+    private final String productName;
     private final double productPrice;
-    private double productStock;
+    private final long productPriceMinorUnits;
+    private final Stock stock;
 
-    Product(String productNumber, String productName, double productPrice, double productStock) {
+    Product(long productNumber, String productName, double productPrice, double productStock) {
+        this(productNumber, productName, productPrice, new Stock(productStock));
+    }
+
+    private Product(long productNumber, String productName, double productPrice, Stock stock) {
         this.productNumber = productNumber;
         this.productName = productName;
         this.productPrice = productPrice;
-        this.productStock = productStock;
+        this.productPriceMinorUnits = CreditLedger.toMinorUnits(productPrice);
+        this.stock = stock;
     }
 
-    public String getProductNumber() {
+    public Product withProductName(String name) {
+        return new Product(productNumber, name, productPrice, stock);
+    }
+
+    public Product withProductPrice(double price) {
+        return new Product(productNumber, productName, price, stock);
+    }
+
+    public long getProductNumber() {
         return productNumber;
     }
 
@@ -105,167 +196,953 @@ class Product {
         return productPrice;
     }
 
+    public long getProductPriceMinorUnits() {
+        return productPriceMinorUnits;
+    }
+
+    public long priceFor(double quantity) {
+        return Math.round(productPriceMinorUnits * quantity);
+    }
+
     public void setProductStock(double val) {
-        productStock = val;
+        stock.available = val;
     }
 
     public double getProductStock() {
-        return productStock;
+        return stock.available;
+    }
+
+    public void setReservedStock(double val) {
+        stock.reserved = val;
+    }
+
+    public double getReservedStock() {
+        return stock.reserved;
     }
 }
 
 // Order class
 class Order {
-    private final String orderNumber;
-    private final LocalDate orderDate;
-    private final Customer customer;
-    private final Product product;
+    private final long orderNumber;
+    private final long customerId;
+    private final long productId;
+    private final String customerName;
+    private final String productName;
     private final double quantity;
+    private final long unitPriceMinorUnits;
+    private final long totalMinorUnits;
+    private final int epochDay;
 
+    // Captures the price, the total and the names at purchase time; later catalog or account changes
+    // never alter an order that was already placed.
     Order(Customer customer, Product product, double quantity) {
-        this.orderNumber = UUID.randomUUID().toString();
-        this.orderDate = LocalDate.now();
-        this.customer = customer;
-        this.product = product;
+        this(IdGenerator.nextId(), LocalDate.now().toEpochDay(), customer.getCustomerId(), customer.getCustomerName(),
+                product.getProductNumber(), product.getProductName(), quantity, product.getProductPriceMinorUnits(),
+                product.priceFor(quantity));
+    }
+
+    // Rebuilds a stored order exactly as it was placed, e.g. from a snapshot, the order archive or the
+    // write-ahead log; see OrderRecord.
+    Order(long orderNumber, long epochDay, long customerId, String customerName, long productId, String productName,
+            double quantity, long unitPriceMinorUnits, long totalMinorUnits) {
+        this.orderNumber = orderNumber;
+        this.customerId = customerId;
+        this.productId = productId;
+        this.customerName = customerName;
+        this.productName = productName;
         this.quantity = quantity;
+        this.unitPriceMinorUnits = unitPriceMinorUnits;
+        this.totalMinorUnits = totalMinorUnits;
+        this.epochDay = Math.toIntExact(epochDay);
     }
 
-    public String getOrderNumber() {
+    public long getOrderNumber() {
         return orderNumber;
     }
 
     public LocalDate getOrderDate() {
-        return orderDate;
+        return LocalDate.ofEpochDay(epochDay);
     }
 
-    // public Customer getCustomer() {
-    // return customer;
-    // }
+    public long getEpochDay() {
+        return epochDay;
+    }
 
-    // public Product getProduct() {
-    // return product;
-    // }
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    // The customer's name when the order was placed.
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public long getProductId() {
+        return productId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
 
     public double getQuantity() {
         return quantity;
     }
 
+    public long getUnitPriceMinorUnits() {
+        return unitPriceMinorUnits;
+    }
+
+    public double getUnitPrice() {
+        return CreditLedger.toAmount(unitPriceMinorUnits);
+    }
+
+    public long getTotalMinorUnits() {
+        return totalMinorUnits;
+    }
+
     public double getTotalAmount() {
-        return product.getProductPrice() * quantity;
+        return CreditLedger.toAmount(totalMinorUnits);
     }
 
     public void printInvoice() {
-        if (quantity > 0) {
-            System.out.println("Invoice:");
-            System.out.println("Order Number: " + orderNumber);
-            System.out.println("Order Date: " + orderDate);
-            System.out.println("Customer Name: " + customer.getCustomerName());
-            System.out.println("Product Name: " + product.getProductName());
-            System.out.println("Quantity: " + quantity);
-            System.out.println("Total Amount: " + getTotalAmount());
-        } else {
-            System.out.println("No product purchased.");
+        long start = StoreMetrics.PRINT_INVOICE.start();
+        StoreRenderer.stdout().invoice(this).flush();
+        StoreMetrics.PRINT_INVOICE.stop(start);
+    }
+}
+
+// Cart class
+// Order lines collected by a customer and committed together by ProductStore.checkout.
+class Cart {
+    private final Map<String, Double> lines = new LinkedHashMap<>();
+
+    // Adding the same product twice (in any letter case, with or without surrounding spaces) grows the
+    // existing line; lines are keyed the way the catalog looks names up.
+    public void addLine(String productName, double quantity) {
+        lines.merge(Catalog.normalize(productName), quantity, Double::sum);
+    }
+
+    public Map<String, Double> getLines() {
+        return Collections.unmodifiableMap(lines);
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public void clear() {
+        lines.clear();
+    }
+}
+
+// OrderResult class
+// Outcome of an order attempt. Rejections are shared constants, so refusing an order allocates nothing.
+class OrderResult {
+    enum Status {
+        ACCEPTED, OUT_OF_STOCK, INSUFFICIENT_CREDIT, UNKNOWN_PRODUCT, EMPTY_CART, NOT_SIGNED_IN, NO_RESERVATION,
+        INVALID_QUANTITY
+    }
+
+    static final OrderResult OUT_OF_STOCK = new OrderResult(Status.OUT_OF_STOCK, Collections.emptyList());
+    static final OrderResult INSUFFICIENT_CREDIT = new OrderResult(Status.INSUFFICIENT_CREDIT, Collections.emptyList());
+    static final OrderResult UNKNOWN_PRODUCT = new OrderResult(Status.UNKNOWN_PRODUCT, Collections.emptyList());
+    static final OrderResult EMPTY_CART = new OrderResult(Status.EMPTY_CART, Collections.emptyList());
+    static final OrderResult NOT_SIGNED_IN = new OrderResult(Status.NOT_SIGNED_IN, Collections.emptyList());
+    static final OrderResult NO_RESERVATION = new OrderResult(Status.NO_RESERVATION, Collections.emptyList());
+    static final OrderResult INVALID_QUANTITY = new OrderResult(Status.INVALID_QUANTITY, Collections.emptyList());
+
+    private final Status status;
+    private final List<Order> orders;
+
+    private OrderResult(Status status, List<Order> orders) {
+        this.status = status;
+        this.orders = orders;
+    }
+
+    // Zero, negative, infinite and NaN quantities would refund or corrupt stock and credit, so they are
+    // turned away before anything is looked up.
+    static boolean isValidQuantity(double quantity) {
+        return quantity > 0 && Double.isFinite(quantity);
+    }
+
+    static OrderResult accepted(Order order) {
+        return new OrderResult(Status.ACCEPTED, Collections.singletonList(order));
+    }
+
+    static OrderResult accepted(List<Order> orders) {
+        return new OrderResult(Status.ACCEPTED, Collections.unmodifiableList(orders));
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isAccepted() {
+        return status == Status.ACCEPTED;
+    }
+
+    // The placed order (the first one for a cart checkout), or null when the order was rejected.
+    public Order getOrder() {
+        return orders.isEmpty() ? null : orders.get(0);
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    public String getMessage() {
+        switch (status) {
+            case ACCEPTED:
+                return "Order placed.";
+            case OUT_OF_STOCK:
+                return "Product is out of stock.";
+            case INSUFFICIENT_CREDIT:
+                return "Insufficient credits.";
+            case EMPTY_CART:
+                return "Your cart is empty.";
+            case NOT_SIGNED_IN:
+                return "Please sign in. Your session has expired or is unknown.";
+            case NO_RESERVATION:
+                return "Your reservation has expired or is unknown.";
+            case INVALID_QUANTITY:
+                return "Quantity must be a positive number.";
+            default:
+                return "Product not found.";
         }
     }
 }
 
+// ProductPage class
+// One page of a catalog listing plus the opaque token that continues it.
+class ProductPage {
+    enum SortKey {
+        INSERTION(null),
+        NAME(Comparator.comparing(Product::getProductName, String.CASE_INSENSITIVE_ORDER)
+                .thenComparingLong(Product::getProductNumber)),
+        PRICE(Comparator.comparingLong(Product::getProductPriceMinorUnits)
+                .thenComparingLong(Product::getProductNumber));
+
+        final Comparator<Product> order;
+
+        SortKey(Comparator<Product> order) {
+            this.order = order;
+        }
+    }
+
+    private final List<Product> products;
+    private final String nextToken;
+
+    ProductPage(List<Product> products, String nextToken) {
+        this.products = products;
+        this.nextToken = nextToken;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    // Token for the following page, or null when this is the last one.
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasMore() {
+        return nextToken != null;
+    }
+
+    // Token layout: sort key, insertion offset, then the last product's id, price and name, so a
+    // sorted listing can resume after that product even if products were added in between.
+    static String encodeToken(SortKey sortKey, long offset, Product last) {
+        byte[] name = last.getProductName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer token = ByteBuffer.allocate(1 + 8 * 3 + name.length);
+        token.put((byte) sortKey.ordinal()).putLong(offset).putLong(last.getProductNumber())
+                .putLong(last.getProductPriceMinorUnits()).put(name);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.array());
+    }
+
+    // Insertion offset of the next page; rejects offsets no listing could have produced.
+    static int decodeOffset(String token, SortKey sortKey) {
+        long offset = decode(token, sortKey).getLong(1);
+        if (offset < 0 || offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid continuation token.");
+        }
+        return (int) offset;
+    }
+
+    // Rebuilds the last product of the previous page as a probe to compare the catalog against.
+    static Product decodeLast(String token, SortKey sortKey) {
+        ByteBuffer buffer = decode(token, sortKey);
+        buffer.position(9);
+        long id = buffer.getLong();
+        long priceMinorUnits = buffer.getLong();
+        String name = StandardCharsets.UTF_8.decode(buffer).toString();
+        return new Product(id, name, CreditLedger.toAmount(priceMinorUnits), 0);
+    }
+
+    private static ByteBuffer decode(String token, SortKey sortKey) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token.");
+        }
+        if (buffer.remaining() < 25 || buffer.get(0) != sortKey.ordinal()) {
+            throw new IllegalArgumentException("Invalid continuation token for sort key " + sortKey + ".");
+        }
+        return buffer;
+    }
+}
+
+// CatalogSubscription class
+// Streams the catalog to one Flow subscriber, never emitting more products than it has requested.
+class CatalogSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super Product> subscriber;
+    private final Iterator<Product> products;
+    private final AtomicLong demand = new AtomicLong();
+    private volatile boolean cancelled;
+
+    CatalogSubscription(Flow.Subscriber<? super Product> subscriber, Iterator<Product> products) {
+        this.subscriber = subscriber;
+        this.products = products;
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            cancel();
+            subscriber.onError(new IllegalArgumentException("Requested " + n + " products; must be positive."));
+            return;
+        }
+        long previous;
+        long updated;
+        do {
+            previous = demand.get();
+            updated = previous + n < 0 ? Long.MAX_VALUE : previous + n;
+        } while (!demand.compareAndSet(previous, updated));
+        // Only the call that raises demand from zero emits; requests made from inside onNext just add to it.
+        if (previous == 0) {
+            drain(updated);
+        }
+    }
+
+    private void drain(long requested) {
+        long emitted = 0;
+        while (true) {
+            while (emitted < requested) {
+                if (cancelled) {
+                    return;
+                }
+                if (!products.hasNext()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                    return;
+                }
+                subscriber.onNext(products.next());
+                emitted++;
+            }
+            requested = demand.addAndGet(-emitted);
+            emitted = 0;
+            if (requested == 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+    }
+}
+
 // ProductStore class
+// Reads go to the current Catalog version and never lock; catalog writers take the store's monitor
+// to build and publish the next version. Stock is not part of the catalog and uses the striped locks.
 class ProductStore {
-    private List<Product> productList;
+    private volatile Catalog catalog;
+    private final ReentrantLock[] stockLocks;
+    private volatile WriteAheadLog writeAheadLog;
+    private volatile InventoryEventBus eventBus;
+    // Created on the first reservation, so stores that never reserve do not start an expiry thread.
+    private volatile StockReservations reservations;
 
     ProductStore(List<Product> products) {
-        this.productList = products;
+        this.catalog = Catalog.EMPTY.toBuilder().addAll(products).build();
+        this.stockLocks = new ReentrantLock[lockStripes()];
+        for (int i = 0; i < stockLocks.length; i++) {
+            stockLocks[i] = new ReentrantLock();
+        }
     }
 
+    // Each call publishes a new catalog version and copies the name and id lookups, O(N); to add many
+    // products, pass them to the constructor or add them in one updateCatalog batch.
     public void addProduct(Product items) {
-        productList.add(items);
+        updateCatalog(batch -> batch.add(items));
+    }
+
+    // Applies a batch of additions, renames and price changes as one new catalog version. Readers see
+    // either none of the batch or all of it. A batch copies each structure it changes once (see
+    // Catalog.Builder), so group changes together. With a write-ahead log the batch is logged before
+    // it is published, so no order can reach the log ahead of the products it names.
+    public synchronized Catalog updateCatalog(Consumer<Catalog.Builder> changes) {
+        Catalog.Builder batch = catalog.toBuilder();
+        changes.accept(batch);
+        Catalog next = batch.build();
+        WriteAheadLog log = writeAheadLog;
+        if (log != null && (!batch.getAdded().isEmpty() || !batch.getChanged().isEmpty())) {
+            log.logCatalogChanges(batch.getAdded(), batch.getChanged());
+        }
+        catalog = next;
+        InventoryEventBus events = eventBus;
+        if (events != null) {
+            for (Product product : batch.getAdded()) {
+                events.publishProductAdded(product);
+            }
+        }
+        return next;
+    }
+
+    // Returns the renamed product, or null if there is no product with that id. Copies the product array
+    // and the name lookup, O(N); rename many products in one updateCatalog batch.
+    public Product renameProduct(long productNumber, String name) {
+        Product[] renamed = new Product[1];
+        updateCatalog(batch -> renamed[0] = batch.rename(productNumber, name));
+        return renamed[0];
+    }
+
+    // Orders already placed keep the price they were charged. Returns null if there is no product with that id.
+    // Copies only the product array, O(N) but a plain memory copy.
+    public Product repriceProduct(long productNumber, double price) {
+        Product[] repriced = new Product[1];
+        updateCatalog(batch -> repriced[0] = batch.reprice(productNumber, price));
+        return repriced[0];
+    }
+
+    // The current version; hold on to it to read several things from one consistent catalog.
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    // Once set, every committed order is appended to the log before its stock locks are released, and
+    // so before it is reported as accepted.
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    // Runs the action while every stock lock and the catalog monitor are held. Orders change stock,
+    // credit and history and log themselves only under their stock locks, and catalog batches log and
+    // publish under the monitor, so the action sees no change half done and nothing is logged while it
+    // runs. Order intake waits meanwhile, so keep it to copying counters.
+    synchronized <T> T whileOrdersPaused(Supplier<T> action) {
+        for (ReentrantLock lock : stockLocks) {
+            lock.lock();
+        }
+        try {
+            return action.get();
+        } finally {
+            for (int i = stockLocks.length - 1; i >= 0; i--) {
+                stockLocks[i].unlock();
+            }
+        }
+    }
+
+    // Called under the order's stock locks; see whileOrdersPaused.
+    private void record(Customer customer, List<Order> orders) {
+        for (Order order : orders) {
+            customer.addOrder(order);
+        }
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            if (orders.size() == 1) {
+                log.logOrder(orders.get(0));
+            } else {
+                log.logOrders(orders);
+            }
+        }
+    }
+
+    // Once set, every stock change, placed order and added product is published to the bus. Stock
+    // changes are published while the product's stock lock is held, so each product's events arrive
+    // in the order the changes were made.
+    public void setEventBus(InventoryEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    public InventoryEventBus getEventBus() {
+        return eventBus;
+    }
+
+    // A few stripes per core keeps orders for different products from queueing on the same lock.
+    private static int lockStripes() {
+        int wanted = Runtime.getRuntime().availableProcessors() * 4;
+        int stripes = 16;
+        while (stripes < wanted) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    // By product number rather than identity, since every catalog version of a product must share one lock.
+    private int stockStripe(Product product) {
+        long h = product.getProductNumber() * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (stockLocks.length - 1);
+    }
+
+    ReentrantLock stockLock(Product product) {
+        return stockLocks[stockStripe(product)];
+    }
+
+    public Product findProduct(String productName) {
+        return catalog.findByName(productName);
+    }
+
+    public Product findProductById(long productNumber) {
+        return catalog.findById(productNumber);
+    }
+
+    // Ranked matches for partial or misspelled names, best first.
+    public List<Product> searchProducts(String query, int limit) {
+        long start = StoreMetrics.SEARCH_PRODUCTS.start();
+        try {
+            return catalog.search(query, limit);
+        } finally {
+            StoreMetrics.SEARCH_PRODUCTS.stop(start);
+        }
+    }
+
+    // Read-only view of the current version; later catalog changes do not show up in it.
+    public List<Product> getProducts() {
+        return catalog.getProducts();
+    }
+
+    // One page of the catalog. Pass a null token for the first page and the previous page's token
+    // for the next. Insertion order is a direct slice. Sorted orders are built once per catalog version
+    // (see Catalog.sortedBy) and a page starts after a binary search for the token's product, so a full
+    // walk costs one sort plus O(log N) per page while the catalog does not change.
+    public ProductPage listProducts(int pageSize, String continuationToken, ProductPage.SortKey sortKey) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        List<Product> page = new ArrayList<>(pageSize);
+        if (sortKey == ProductPage.SortKey.INSERTION) {
+            List<Product> productList = catalog.getProducts();
+            int from = continuationToken == null ? 0 : ProductPage.decodeOffset(continuationToken, sortKey);
+            int size = productList.size();
+            if (from > size) {
+                throw new IllegalArgumentException("Invalid continuation token.");
+            }
+            int to = from;
+            while (to < size && page.size() < pageSize) {
+                page.add(productList.get(to++));
+            }
+            String next = to < productList.size() ? ProductPage.encodeToken(sortKey, to, page.get(page.size() - 1)) : null;
+            return new ProductPage(page, next);
+        }
+
+        List<Product> sorted = catalog.sortedBy(sortKey);
+        int from = 0;
+        if (continuationToken != null) {
+            // The token's product may have been renamed or repriced since, so search by its sort key
+            // rather than its position: the page starts right after where that key sorts.
+            Product after = ProductPage.decodeLast(continuationToken, sortKey);
+            int at = Collections.binarySearch(sorted, after, sortKey.order);
+            from = at >= 0 ? at + 1 : -at - 1;
+        }
+        int to = Math.min(sorted.size(), from + pageSize);
+        page.addAll(sorted.subList(from, to));
+        String next = to < sorted.size() ? ProductPage.encodeToken(sortKey, 0, page.get(page.size() - 1)) : null;
+        return new ProductPage(page, next);
+    }
+
+    // Lazily walks the catalog as it was when the stream started; nothing is copied up front.
+    public Stream<Product> productStream() {
+        return catalog.getProducts().stream();
+    }
+
+    // Each subscriber gets its own pass over the catalog, paced by its own requests.
+    public Flow.Publisher<Product> productPublisher() {
+        return subscriber -> subscriber.onSubscribe(
+                new CatalogSubscription(subscriber, catalog.getProducts().iterator()));
     }
 
     public void getAllProductList() {
+        List<Product> productList = catalog.getProducts();
         if (productList.isEmpty()) {
             throw new ProductError("Product list is empty.");
         } else {
+            long start = StoreMetrics.GET_ALL_PRODUCT_LIST.start();
+            StoreRenderer out = StoreRenderer.stdout();
             for (Product product : productList) {
-                System.out.println("Product Id: " + product.getProductNumber() +
-                        " Product Name: " + product.getProductName() +
-                        " Product Price: " + product.getProductPrice() +
-                        " Product Stock: " + product.getProductStock());
+                out.product(product);
             }
+            out.flush();
+            StoreMetrics.GET_ALL_PRODUCT_LIST.stop(start);
         }
     }
 
     public void searchOneProduct(String productName) {
-        boolean found = false;
-        for (Product product : productList) {
-            if (product.getProductName().equalsIgnoreCase(productName)) {
-                System.out.println("Product Id: " + product.getProductNumber() +
-                        " Product Name: " + product.getProductName() +
-                        " Product Price: " + product.getProductPrice() +
-                        " Product Stock: " + product.getProductStock());
-                found = true;
-                break;
+        long start = StoreMetrics.SEARCH_ONE_PRODUCT.start();
+        Product product = findProduct(productName);
+        if (product != null) {
+            StoreRenderer.stdout().product(product).flush();
+        } else {
+            List<Product> suggestions = searchProducts(productName, 5);
+            if (suggestions.isEmpty()) {
+                System.out.println("Product not found.");
+            } else {
+                System.out.println("Product not found. Did you mean:");
+                StoreRenderer out = StoreRenderer.stdout();
+                for (Product suggestion : suggestions) {
+                    out.product(suggestion);
+                }
+                out.flush();
             }
         }
-        if (!found) {
-            System.out.println("Product not found.");
-        }
+        StoreMetrics.SEARCH_ONE_PRODUCT.stop(start);
     }
 
     public boolean stockAvailable(String productName, double quantity) {
-        for (Product product : productList) {
-            if (product.getProductName().equalsIgnoreCase(productName) && product.getProductStock() >= quantity) {
-                return true;
-            }
+        long start = StoreMetrics.STOCK_AVAILABLE.start();
+        try {
+            return checkStock(findProduct(productName), quantity);
+        } finally {
+            StoreMetrics.STOCK_AVAILABLE.stop(start);
         }
-        throw new OutOfStock("Product is out of stock.");
     }
 
     public boolean creditsAvailable(Customer customer, String productName, double quantity) {
-        for (Product product : productList) {
-            if (product.getProductName().equalsIgnoreCase(productName)
-                    && customer.getCredit() >= product.getProductPrice() * quantity) {
-                return true;
-            }
+        long start = StoreMetrics.CREDITS_AVAILABLE.start();
+        try {
+            return checkCredits(customer, findProduct(productName), quantity);
+        } finally {
+            StoreMetrics.CREDITS_AVAILABLE.stop(start);
         }
+    }
+
+    private boolean checkStock(Product product, double quantity) {
+        if (product != null && product.getProductStock() >= quantity) {
+            return true;
+        }
+        StoreMetrics.OUT_OF_STOCK_THROWN.increment();
+        throw new OutOfStock("Product is out of stock.");
+    }
+
+    private boolean checkCredits(Customer customer, Product product, double quantity) {
+        if (product != null && customer.getCreditLedger().getBalance() >= product.priceFor(quantity)) {
+            return true;
+        }
+        StoreMetrics.OUT_OF_CREDITS_THROWN.increment();
         throw new OutOfCredits("Insufficient credits.");
     }
 
+    // Exception-free order path: failures come back as an OrderResult instead of a thrown exception.
+    public OrderResult tryPlaceOrder(Customer customer, String productName, double quantity) {
+        long start = StoreMetrics.PLACE_ORDER.start();
+        OrderResult result = placeOrderLocked(customer, productName, quantity);
+        StoreMetrics.PLACE_ORDER.stop(start);
+        StoreMetrics.orderResult(result);
+        return result;
+    }
+
+    private OrderResult placeOrderLocked(Customer customer, String productName, double quantity) {
+        if (!OrderResult.isValidQuantity(quantity)) {
+            return OrderResult.INVALID_QUANTITY;
+        }
+        Product product = findProduct(productName);
+        if (product == null) {
+            return OrderResult.UNKNOWN_PRODUCT;
+        }
+        if (product.getProductStock() < quantity) {
+            return OrderResult.OUT_OF_STOCK;
+        }
+        InventoryEventBus events = eventBus;
+        Order order;
+        ReentrantLock lock = stockLock(product);
+        lock.lock();
+        try {
+            // Re-check under the lock: another buyer may have taken the stock since the check above.
+            if (product.getProductStock() < quantity) {
+                return OrderResult.OUT_OF_STOCK;
+            }
+            if (!customer.tryDebit(product.priceFor(quantity))) {
+                return OrderResult.INSUFFICIENT_CREDIT;
+            }
+            product.setProductStock(product.getProductStock() - quantity);
+            if (events != null) {
+                events.publishStockChange(product, -quantity);
+            }
+            order = new Order(customer, product, quantity);
+            record(customer, Collections.singletonList(order));
+        } finally {
+            lock.unlock();
+        }
+        if (events != null) {
+            events.publishOrder(order, product);
+        }
+        return OrderResult.accepted(order);
+    }
+
+    // Holds stock for a customer in checkout until confirmReservation or releaseReservation, or until
+    // ttlMillis pass and the units go back on sale. Returns null for an unknown product or too little stock.
+    public StockReservations.Reservation reserve(Customer customer, String productName, double quantity,
+            long ttlMillis) {
+        Product product = findProduct(productName);
+        return product == null ? null : reservations().reserve(customer, product, quantity, ttlMillis);
+    }
+
+    // Buys the reserved units. Nobody else can have taken them, so only the customer's credit can fail;
+    // in that case the reservation stays held.
+    public OrderResult confirmReservation(Customer customer, long reservationId) {
+        OrderResult result = confirmLocked(customer, reservationId);
+        StoreMetrics.orderResult(result);
+        return result;
+    }
+
+    private OrderResult confirmLocked(Customer customer, long reservationId) {
+        StockReservations held = reservations;
+        StockReservations.Reservation reservation = held == null ? null : held.find(customer, reservationId);
+        if (reservation == null) {
+            return OrderResult.NO_RESERVATION;
+        }
+        Product product = reservation.getProduct();
+        Order order;
+        ReentrantLock lock = stockLock(product);
+        lock.lock();
+        try {
+            // The reservation may have expired or been released since it was looked up.
+            if (reservation.getState() != StockReservations.State.HELD) {
+                return OrderResult.NO_RESERVATION;
+            }
+            if (!customer.tryDebit(product.priceFor(reservation.getQuantity()))) {
+                return OrderResult.INSUFFICIENT_CREDIT;
+            }
+            held.confirmLocked(reservation);
+            order = new Order(customer, product, reservation.getQuantity());
+            record(customer, Collections.singletonList(order));
+        } finally {
+            lock.unlock();
+        }
+        // The stock change was published when the units were reserved.
+        InventoryEventBus events = eventBus;
+        if (events != null) {
+            events.publishOrder(order, product);
+        }
+        return OrderResult.accepted(order);
+    }
+
+    // Returns false if the reservation was unknown, already confirmed or already expired.
+    public boolean releaseReservation(Customer customer, long reservationId) {
+        StockReservations held = reservations;
+        StockReservations.Reservation reservation = held == null ? null : held.find(customer, reservationId);
+        return reservation != null && held.release(reservation);
+    }
+
+    private StockReservations reservations() {
+        StockReservations held = reservations;
+        if (held == null) {
+            synchronized (this) {
+                held = reservations;
+                if (held == null) {
+                    held = new StockReservations(this);
+                    reservations = held;
+                }
+            }
+        }
+        return held;
+    }
+
     public void placeOrder(Customer customer, String productName, double quantity) {
+        OrderResult result = tryPlaceOrder(customer, productName, quantity);
+        if (result.isAccepted()) {
+            result.getOrder().printInvoice();
+        } else {
+            System.err.println(result.getMessage());
+        }
+    }
+
+    // Commits every line of the cart or none of them. All stripes the cart touches are locked once,
+    // in ascending order so concurrent checkouts cannot deadlock, and the whole total is debited at once.
+    public OrderResult checkout(Customer customer, Cart cart) {
+        long start = StoreMetrics.CHECKOUT.start();
+        OrderResult result = checkoutLocked(customer, cart);
+        StoreMetrics.CHECKOUT.stop(start);
+        StoreMetrics.orderResult(result);
+        return result;
+    }
+
+    private OrderResult checkoutLocked(Customer customer, Cart cart) {
+        if (cart.isEmpty()) {
+            return OrderResult.EMPTY_CART;
+        }
+        Map<String, Double> lines = cart.getLines();
+        for (double quantity : lines.values()) {
+            if (!OrderResult.isValidQuantity(quantity)) {
+                return OrderResult.INVALID_QUANTITY;
+            }
+        }
+        Product[] products = new Product[lines.size()];
+        double[] quantities = new double[lines.size()];
+        // Stock is checked against what the whole cart takes from each product, since two lines can
+        // name the same product.
+        Map<Long, Double> demand = new HashMap<>();
+        BitSet stripes = new BitSet(stockLocks.length);
+        long totalMinorUnits = 0;
+        int i = 0;
+        for (Map.Entry<String, Double> line : lines.entrySet()) {
+            Product product = findProduct(line.getKey());
+            if (product == null) {
+                return OrderResult.UNKNOWN_PRODUCT;
+            }
+            products[i] = product;
+            quantities[i] = line.getValue();
+            demand.merge(product.getProductNumber(), quantities[i], Double::sum);
+            totalMinorUnits += product.priceFor(quantities[i]);
+            stripes.set(stockStripe(product));
+            i++;
+        }
+
+        InventoryEventBus events = eventBus;
+        List<Order> orders = new ArrayList<>(products.length);
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+            stockLocks[stripe].lock();
+        }
         try {
-            if (stockAvailable(productName, quantity) && creditsAvailable(customer, productName, quantity)) {
-                for (Product product : productList) {
-                    if (product.getProductName().equalsIgnoreCase(productName)) {
-                        product.setProductStock(product.getProductStock() - quantity);
-                        customer.setCredit(customer.getCredit() - product.getProductPrice() * quantity);
-                        Order order = new Order(customer, product, quantity);
-                        customer.addOrder(order);
-                        order.printInvoice();
-                        return;
-                    }
+            for (i = 0; i < products.length; i++) {
+                if (products[i].getProductStock() < demand.get(products[i].getProductNumber())) {
+                    return OrderResult.OUT_OF_STOCK;
                 }
             }
-        } catch (OutOfStock | OutOfCredits e) {
-            System.err.println(e.getMessage());
+            if (!customer.tryDebit(totalMinorUnits)) {
+                return OrderResult.INSUFFICIENT_CREDIT;
+            }
+            for (i = 0; i < products.length; i++) {
+                products[i].setProductStock(products[i].getProductStock() - quantities[i]);
+                if (events != null) {
+                    events.publishStockChange(products[i], -quantities[i]);
+                }
+                orders.add(new Order(customer, products[i], quantities[i]));
+            }
+            record(customer, orders);
+        } finally {
+            for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+                stockLocks[stripe].unlock();
+            }
         }
+
+        if (events != null) {
+            for (i = 0; i < products.length; i++) {
+                events.publishOrder(orders.get(i), products[i]);
+            }
+        }
+        cart.clear();
+        return OrderResult.accepted(orders);
     }
 }
 
 // Main class
 public class Main1 {
-    public static void main(String[] args) {
-        // Initialize the list of products
+    // Newest orders first, 20 at a time, so a long history is never read in one go.
+    private static void printOrderHistory(Customer customer, Scanner sc) {
+        OrderHistory.Page page = customer.getOrderHistory().page(null, 20);
+        if (page.getOrders().isEmpty()) {
+            System.out.println("No previous orders found.");
+            return;
+        }
+        System.out.println("Your Previous Orders are:");
+        while (true) {
+            for (Order order : page.getOrders()) {
+                order.printInvoice();
+            }
+            if (!page.hasMore()) {
+                break;
+            }
+            System.out.println("Press Enter to see older orders, or type q to stop:");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            page = customer.getOrderHistory().page(page.getNextToken(), 20);
+        }
+    }
+
+    // The catalog 20 products at a time, so a large one is never printed in one go.
+    private static void printProducts(ProductStore store, Scanner sc) {
+        ProductPage page = store.listProducts(20, null, ProductPage.SortKey.INSERTION);
+        if (page.getProducts().isEmpty()) {
+            System.err.println("Product list is empty.");
+            return;
+        }
+        while (true) {
+            StoreRenderer out = StoreRenderer.stdout();
+            for (Product product : page.getProducts()) {
+                out.product(product);
+            }
+            out.flush();
+            if (!page.hasMore()) {
+                break;
+            }
+            System.out.println("Press Enter to see more products, or type q to stop:");
+            if (sc.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            page = store.listProducts(20, page.getNextToken(), ProductPage.SortKey.INSERTION);
+        }
+    }
+
+    static List<Product> defaultCatalog() {
         List<Product> products = new ArrayList<>();
-        products.add(new Product(UUID.randomUUID().toString(), "Laptop", 45000, 140));
-        products.add(new Product(UUID.randomUUID().toString(), "Cycle", 12000, 400));
-        products.add(new Product(UUID.randomUUID().toString(), "Dress", 800, 40));
-        products.add(new Product(UUID.randomUUID().toString(), "Shirts", 567, 890));
-        products.add(new Product(UUID.randomUUID().toString(), "Books", 7290, 190));
+        products.add(new Product(IdGenerator.nextId(), "Laptop", 45000, 140));
+        products.add(new Product(IdGenerator.nextId(), "Cycle", 12000, 400));
+        products.add(new Product(IdGenerator.nextId(), "Dress", 800, 40));
+        products.add(new Product(IdGenerator.nextId(), "Shirts", 567, 890));
+        products.add(new Product(IdGenerator.nextId(), "Books", 7290, 190));
+        return products;
+    }
 
-        ProductStore store = new ProductStore(products);
+    public static void main(String[] args) {
+        // Metrics are visible over JMX; -Dstore.metrics.dumpSeconds=N also prints them to stderr
+        StoreMetrics.registerMBeans();
+        long dumpSeconds = Long.getLong("store.metrics.dumpSeconds", 0);
+        if (dumpSeconds > 0) {
+            StoreMetrics.startDumping(dumpSeconds, System.err);
+        }
+
+        // Older orders are spilled to a scratch file; without it every order stays in memory
+        OrderArchive archive = null;
+        try {
+            archive = new OrderArchive(Paths.get("orders.archive"));
+        } catch (IOException e) {
+            System.err.println("Could not open the order archive: " + e.getMessage());
+        }
+
+        // Restore the store from the last snapshot and the write-ahead log, or start from the default catalog
+        StorePersistence persistence;
+        try {
+            persistence = StorePersistence.open(Paths.get("store.snapshot"), Paths.get("wal"),
+                    new CustomerRegistry(archive), Main1::defaultCatalog);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not restore the store: " + e.getMessage());
+            if (archive != null) {
+                try {
+                    archive.close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            return;
+        }
+        ProductStore store = persistence.getStore();
+        CustomerRegistry customers = persistence.getCustomers();
+        // Saved in the background every five minutes, or every -Dstore.snapshot.seconds (0 turns it off)
+        persistence.scheduleSnapshots(Long.getLong("store.snapshot.seconds", 300));
+
+        // Stock changes go out on an event bus; the low-stock watcher warns on stderr when a product runs low
+        InventoryEventBus events = new InventoryEventBus(4096);
+        events.subscribe("low-stock", LowStockWatcher.printing(10), InventoryEventBus.WaitStrategy.BLOCKING);
+        store.setEventBus(events);
 
-        Map<String, Customer> customers = new HashMap<>();
         Scanner sc = new Scanner(System.in);
         Customer currentCustomer = null;
+        Cart cart = new Cart();
 
         int choiceNumber;
         do {
@@ -279,24 +1156,23 @@ public class Main1 {
             System.out.println("7. View Account Details");
             System.out.println("8. Edit User Details");
             System.out.println("9. Invoice");
+            System.out.println("10. Add a Product to Cart");
+            System.out.println("11. Checkout Cart");
             System.out.println("Enter 0 to Exit");
             System.out.println("Please enter your choice: ");
 
             choiceNumber = sc.nextInt();
             sc.nextLine();
+            StoreMetrics.menuAction(choiceNumber);
 
             switch (choiceNumber) {
                 case 1:
-                    try {
-                        store.getAllProductList();
-                    } catch (ProductError e) {
-                        System.err.println(e.getMessage());
-                    }
+                    printProducts(store, sc);
                     break;
 
                 case 2:
                     if (currentCustomer != null) {
-                        store.getAllProductList();
+                        printProducts(store, sc);
                         System.out.println("Please enter Product Name:");
                         String productName = sc.nextLine();
                         System.out.println("Please enter product quantity (quantity >= 0):");
@@ -316,15 +1192,7 @@ public class Main1 {
                     if (currentCustomer == null) {
                         System.out.println("Please sign in. You are an unauthorized user!");
                     } else {
-                        List<Order> orders = currentCustomer.getOrders();
-                        if (orders.isEmpty()) {
-                            System.out.println("No previous orders found.");
-                        } else {
-                            System.out.println("Your Previous Orders are:");
-                            for (Order order : orders) {
-                                order.printInvoice();
-                            }
-                        }
+                        printOrderHistory(currentCustomer, sc);
                     }
                     break;
 
@@ -346,10 +1214,19 @@ public class Main1 {
                     double credit = sc.nextDouble();
                     sc.nextLine();
 
-                    String customerId = UUID.randomUUID().toString();
+                    long customerId = IdGenerator.nextId();
                     Customer newCustomer = new Customer(customerId, name, password, credit, email);
-                    customers.put(email, newCustomer);
-                    System.out.println("Account created successfully!");
+                    switch (customers.register(newCustomer)) {
+                        case REGISTERED:
+                            System.out.println("Account created successfully!");
+                            break;
+                        case EMAIL_TAKEN:
+                            System.out.println("An account with this email already exists. Please log in.");
+                            break;
+                        default:
+                            System.out.println("This name is already taken. Please choose another one.");
+                            break;
+                    }
                     break;
 
                 case 6:
@@ -358,9 +1235,10 @@ public class Main1 {
                     System.out.println("Please enter your password:");
                     String loginPassword = sc.nextLine();
 
-                    Customer customer = customers.get(loginEmail);
-                    if (customer != null && customer.getCustomerPassword().equals(loginPassword)) {
+                    Customer customer = customers.loginByEmail(loginEmail, loginPassword);
+                    if (customer != null) {
                         currentCustomer = customer;
+                        cart.clear();
                         System.out.println("Logged in successfully!");
                     } else {
                         System.out.println("Invalid email or password.");
@@ -381,10 +1259,12 @@ public class Main1 {
                     if (currentCustomer != null) {
                         System.out.println("Enter new name:");
                         String newName = sc.nextLine();
-                        currentCustomer.setCustomerName(newName);
+                        if (!customers.rename(currentCustomer, newName)) {
+                            System.out.println("This name is already taken. Keeping your current name.");
+                        }
                         System.out.println("Enter new password:");
                         String newPassword = sc.nextLine();
-                        currentCustomer.setCustomerPassword(newPassword);
+                        customers.changePassword(currentCustomer, newPassword);
                         System.out.println("User details updated successfully!");
                     } else {
                         System.out.println("Please sign in first.");
@@ -396,15 +1276,36 @@ public class Main1 {
                     } else {
                         System.out.println("Customer Name: " + currentCustomer.getCustomerName());
                         System.out.println("Customer Email: " + currentCustomer.getEmail());
-                        List<Order> orders = currentCustomer.getOrders();
-                        if (orders.isEmpty()) {
-                            System.out.println("No previous orders found.");
-                        } else {
-                            System.out.println("Your Previous Orders are:");
-                            for (Order order : orders) {
+                        printOrderHistory(currentCustomer, sc);
+                    }
+                    break;
+
+                case 10:
+                    if (currentCustomer != null) {
+                        System.out.println("Please enter Product Name:");
+                        String cartProductName = sc.nextLine();
+                        System.out.println("Please enter product quantity (quantity >= 0):");
+                        double cartQuantity = sc.nextDouble();
+                        sc.nextLine();
+                        cart.addLine(cartProductName, cartQuantity);
+                        System.out.println("Added to cart.");
+                    } else {
+                        System.out.println("Please sign in. You are an unauthorized user!");
+                    }
+                    break;
+
+                case 11:
+                    if (currentCustomer != null) {
+                        OrderResult result = store.checkout(currentCustomer, cart);
+                        if (result.isAccepted()) {
+                            for (Order order : result.getOrders()) {
                                 order.printInvoice();
                             }
+                        } else {
+                            System.err.println(result.getMessage());
                         }
+                    } else {
+                        System.out.println("Please sign in. You are an unauthorized user!");
                     }
                     break;
 
@@ -413,11 +1314,24 @@ public class Main1 {
                     break;
 
                 default:
-                    System.out.println("Invalid choice. Please enter a number between 0 and 8.");
+                    System.out.println("Invalid choice. Please enter a number between 0 and 11.");
                     break;
             }
         } while (choiceNumber != 0);
 
         sc.close();
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            System.err.println("Could not save the store: " + e.getMessage());
+        }
+        events.close();
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the order archive: " + e.getMessage());
+            }
+        }
     }
 }
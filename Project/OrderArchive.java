@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// OrderArchive class
+// Append-only spill file shared by every customer's OrderHistory. Older orders are written here in
+// blocks and read back only when someone pages that far into a history. Each record is a full
+// OrderRecord, so archived orders come back with their purchase-time names and prices.
+// The file is scratch space: snapshots and the write-ahead log stay the durable copy, so it is
+// truncated on open and deleted on close.
+// Block layout: record count, count + 1 record offsets from the block start (the last one is the block
+// end), then the records. Any run of records is read with two positional reads.
+class OrderArchive implements AutoCloseable {
+    private final FileChannel channel;
+    private final AtomicLong end = new AtomicLong();
+
+    OrderArchive(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    // Writes the orders as one contiguous block and returns its offset. Space is reserved up front,
+    // so concurrent spills from different customers never wait on each other.
+    public long append(List<Order> orders) {
+        int headerBytes = 4 + (orders.size() + 1) * 4;
+        int maxBytes = headerBytes;
+        for (Order order : orders) {
+            maxBytes += OrderRecord.maxBytes(order);
+        }
+        ByteBuffer block = ByteBuffer.allocate(maxBytes);
+        block.putInt(orders.size());
+        block.position(headerBytes);
+        int index = 4;
+        for (Order order : orders) {
+            block.putInt(index, block.position());
+            index += 4;
+            OrderRecord.put(block, order);
+        }
+        block.putInt(index, block.position());
+        block.flip();
+        long offset = end.getAndAdd(block.remaining());
+        try {
+            long position = offset;
+            while (block.hasRemaining()) {
+                position += channel.write(block, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spill orders to the archive", e);
+        }
+        return offset;
+    }
+
+    // Reads count records starting at record index first of the block at blockOffset, oldest first.
+    public List<Order> read(long blockOffset, int first, int count) {
+        IntBuffer offsets = readFully(blockOffset + 4 + first * 4L, (count + 1) * 4).asIntBuffer();
+        int from = offsets.get(0);
+        ByteBuffer records = readFully(blockOffset + from, offsets.get(count) - from);
+        List<Order> orders = new ArrayList<>(count);
+        byte[] scratch = new byte[OrderRecord.MAX_STRING_BYTES];
+        for (int i = 0; i < count; i++) {
+            orders.add(OrderRecord.get(records, scratch));
+        }
+        return orders;
+    }
+
+    private ByteBuffer readFully(long position, int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Order archive ends inside a block");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read archived orders", e);
+        }
+        return buffer.flip();
+    }
+
+    public long sizeBytes() {
+        return end.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
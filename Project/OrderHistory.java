@@ -0,0 +1,159 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Consumer;
+
+// OrderHistory class
+// One customer's orders, oldest first. The most recent orders stay in memory; once an OrderArchive is
+// attached, older ones are spilled to it a block at a time and only block offsets are kept here, so a
+// heavy buyer costs a few bytes per thousand archived orders. Positions never change once assigned,
+// which keeps page tokens valid while new orders arrive.
+class OrderHistory {
+    static final int RECENT_ORDERS = 256;
+    static final int BLOCK_ORDERS = 256;
+
+    // One page of a history, newest first.
+    static final class Page {
+        private final List<Order> orders;
+        private final String nextToken;
+
+        Page(List<Order> orders, String nextToken) {
+            this.orders = orders;
+            this.nextToken = nextToken;
+        }
+
+        public List<Order> getOrders() {
+            return orders;
+        }
+
+        // Token for the next (older) page, or null when this is the last one.
+        public String getNextToken() {
+            return nextToken;
+        }
+
+        public boolean hasMore() {
+            return nextToken != null;
+        }
+    }
+
+    private final List<Order> recent = new ArrayList<>();
+    private OrderArchive archive;
+    private long[] blocks = new long[4];
+    private int blockCount;
+
+    // Starts spilling to the archive, moving anything already over the in-memory limit straight away.
+    public synchronized void attach(OrderArchive archive) {
+        this.archive = archive;
+        spill();
+    }
+
+    public synchronized void add(Order order) {
+        recent.add(order);
+        if (recent.size() >= RECENT_ORDERS + BLOCK_ORDERS) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        if (archive == null) {
+            return;
+        }
+        while (recent.size() >= RECENT_ORDERS + BLOCK_ORDERS) {
+            List<Order> oldest = recent.subList(0, BLOCK_ORDERS);
+            long offset = archive.append(oldest);
+            if (blockCount == blocks.length) {
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            }
+            blocks[blockCount++] = offset;
+            oldest.clear();
+        }
+    }
+
+    public synchronized long size() {
+        return (long) blockCount * BLOCK_ORDERS + recent.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return blockCount == 0 && recent.isEmpty();
+    }
+
+    // Newest orders first. Pass null for the first page and the previous page's token after that.
+    public Page page(String token, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        long to = token == null ? size() : decodePosition(token);
+        long from = Math.max(0, to - pageSize);
+        List<Order> orders = range(from, to);
+        Collections.reverse(orders);
+        return new Page(orders, from > 0 ? encodePosition(from) : null);
+    }
+
+    // Every order up to the given count, oldest first. Archived blocks are read one at a time.
+    public void forEach(long count, Consumer<Order> action) {
+        forEach(0, count, action);
+    }
+
+    // Orders at positions [from, to), oldest first, read at most a block at a time.
+    public void forEach(long from, long to, Consumer<Order> action) {
+        while (from < to) {
+            long end = Math.min(to, (from / BLOCK_ORDERS + 1) * BLOCK_ORDERS);
+            range(from, end).forEach(action);
+            from = end;
+        }
+    }
+
+    public List<Order> toList() {
+        List<Order> orders = new ArrayList<>();
+        forEach(size(), orders::add);
+        return orders;
+    }
+
+    // Orders at positions [from, to), oldest first. The in-memory part is copied under the lock; the
+    // archive is read outside it, since spilled blocks never change.
+    private List<Order> range(long from, long to) {
+        OrderArchive spilledTo;
+        long[] spilledBlocks;
+        long spilled;
+        List<Order> orders = new ArrayList<>();
+        synchronized (this) {
+            spilledTo = archive;
+            spilledBlocks = blocks;
+            spilled = (long) blockCount * BLOCK_ORDERS;
+            to = Math.min(to, spilled + recent.size());
+            if (to > Math.max(from, spilled)) {
+                orders.addAll(recent.subList((int) (Math.max(from, spilled) - spilled), (int) (to - spilled)));
+            }
+        }
+        long archivedTo = Math.min(to, spilled);
+        if (from >= archivedTo) {
+            return orders;
+        }
+        List<Order> archived = new ArrayList<>((int) (archivedTo - from) + orders.size());
+        for (long position = from; position < archivedTo; ) {
+            int block = (int) (position / BLOCK_ORDERS);
+            int first = (int) (position % BLOCK_ORDERS);
+            int count = (int) Math.min(BLOCK_ORDERS - first, archivedTo - position);
+            archived.addAll(spilledTo.read(spilledBlocks[block], first, count));
+            position += count;
+        }
+        archived.addAll(orders);
+        return archived;
+    }
+
+    private static String encodePosition(long position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ByteBuffer.allocate(8).putLong(0, position).array());
+    }
+
+    private static long decodePosition(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid continuation token.");
+        }
+        if (bytes.length != 8) {
+            throw new IllegalArgumentException("Invalid continuation token.");
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+}
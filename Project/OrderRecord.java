@@ -0,0 +1,68 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// OrderRecord class
+// Binary form of an order, shared by the order archive, the snapshot and the write-ahead log. A stored
+// order carries its purchase-time names and unit price, so it reads back exactly as it was placed,
+// without looking up the customer or the product.
+// Layout: order number, epoch day, customer id, product id, quantity, unit price (minor units),
+// total (minor units), customer name, product name.
+// Strings are an unsigned short byte length followed by UTF-8 bytes.
+final class OrderRecord {
+    static final int FIXED_BYTES = 7 * 8;
+    // Largest possible string field, and so the scratch size for getString.
+    static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private OrderRecord() {
+    }
+
+    // Upper bound on the encoded size, cheap enough to check before every put.
+    static int maxBytes(Order order) {
+        return FIXED_BYTES + maxStringBytes(order.getCustomerName()) + maxStringBytes(order.getProductName());
+    }
+
+    static void put(ByteBuffer buffer, Order order) {
+        buffer.putLong(order.getOrderNumber())
+                .putLong(order.getEpochDay())
+                .putLong(order.getCustomerId())
+                .putLong(order.getProductId())
+                .putDouble(order.getQuantity())
+                .putLong(order.getUnitPriceMinorUnits())
+                .putLong(order.getTotalMinorUnits());
+        putString(buffer, order.getCustomerName());
+        putString(buffer, order.getProductName());
+    }
+
+    // The scratch array must hold MAX_STRING_BYTES.
+    static Order get(ByteBuffer buffer, byte[] scratch) {
+        long orderNumber = buffer.getLong();
+        long epochDay = buffer.getLong();
+        long customerId = buffer.getLong();
+        long productId = buffer.getLong();
+        double quantity = buffer.getDouble();
+        long unitPriceMinorUnits = buffer.getLong();
+        long totalMinorUnits = buffer.getLong();
+        String customerName = getString(buffer, scratch);
+        String productName = getString(buffer, scratch);
+        return new Order(orderNumber, epochDay, customerId, customerName, productId, productName, quantity,
+                unitPriceMinorUnits, totalMinorUnits);
+    }
+
+    static int maxStringBytes(String value) {
+        return 2 + value.length() * 3;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("String too long for a record: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer, byte[] scratch) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
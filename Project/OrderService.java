@@ -0,0 +1,145 @@
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// OrderService class
+// Concurrent front door to a ProductStore and its customers. Every call runs as its own task and
+// answers with a CompletableFuture, so many callers can have requests in flight at the same time.
+class OrderService implements AutoCloseable {
+    private final ProductStore store;
+    private final CustomerRegistry customers;
+    private final SessionManager sessions;
+    private final ExecutorService executor;
+
+    OrderService(ProductStore store) {
+        this(store, new CustomerRegistry());
+    }
+
+    OrderService(ProductStore store, CustomerRegistry customers) {
+        this.store = store;
+        this.customers = customers;
+        this.sessions = new SessionManager(TimeUnit.MINUTES.toMillis(30));
+        this.executor = newRequestExecutor();
+    }
+
+    // One virtual thread per request when the runtime has them (Java 21+). Older runtimes get a
+    // work-stealing pool sized to the cores, which queues requests instead of starting a platform
+    // thread for each one.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newWorkStealingPool();
+        }
+    }
+
+    public ProductStore getStore() {
+        return store;
+    }
+
+    public CustomerRegistry getCustomers() {
+        return customers;
+    }
+
+    public CompletableFuture<OrderResult> placeOrder(Customer customer, String productName, double quantity) {
+        return CompletableFuture.supplyAsync(() -> store.tryPlaceOrder(customer, productName, quantity), executor);
+    }
+
+    public CompletableFuture<OrderResult> checkout(Customer customer, Cart cart) {
+        return CompletableFuture.supplyAsync(() -> store.checkout(customer, cart), executor);
+    }
+
+    public CompletableFuture<Optional<Product>> search(String productName) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(store.findProduct(productName)), executor);
+    }
+
+    // Completes empty when the email address or the name is already registered.
+    public CompletableFuture<Optional<Customer>> register(String name, String email, String password, double credit) {
+        return CompletableFuture.supplyAsync(() -> {
+            Customer customer = new Customer(IdGenerator.nextId(), name, password, credit, email);
+            return customers.register(customer) == CustomerRegistry.Registration.REGISTERED
+                    ? Optional.of(customer) : Optional.empty();
+        }, executor);
+    }
+
+    // Completes empty when the email is unknown or the password does not match.
+    public CompletableFuture<Optional<Customer>> login(String email, String password) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(customers.loginByEmail(email, password)), executor);
+    }
+
+    // The whole history, archived orders included. Prefer the paged variant for heavy buyers.
+    public CompletableFuture<List<Order>> orderHistory(Customer customer) {
+        return CompletableFuture.supplyAsync(() -> customer.getOrderHistory().toList(), executor);
+    }
+
+    // Newest orders first; pass null for the first page and the previous page's token after that.
+    public CompletableFuture<OrderHistory.Page> orderHistory(Customer customer, String pageToken, int pageSize) {
+        return CompletableFuture.supplyAsync(() -> customer.getOrderHistory().page(pageToken, pageSize), executor);
+    }
+
+    public CompletableFuture<Double> credit(Customer customer) {
+        return CompletableFuture.supplyAsync(customer::getCredit, executor);
+    }
+
+    // Session-based calls: log in once, then pass the token instead of the Customer.
+
+    // Completes with a session token, or empty when the email or password is wrong.
+    public CompletableFuture<Optional<String>> openSession(String email, String password) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(sessions.login(customers, email, password)),
+                executor);
+    }
+
+    public void closeSession(String token) {
+        sessions.logout(token);
+    }
+
+    public CompletableFuture<OrderResult> placeOrder(String token, String productName, double quantity) {
+        return CompletableFuture.supplyAsync(() -> {
+            Customer customer = sessions.resolve(token);
+            return customer == null ? OrderResult.NOT_SIGNED_IN : store.tryPlaceOrder(customer, productName, quantity);
+        }, executor);
+    }
+
+    public CompletableFuture<OrderResult> checkout(String token, Cart cart) {
+        return CompletableFuture.supplyAsync(() -> {
+            Customer customer = sessions.resolve(token);
+            return customer == null ? OrderResult.NOT_SIGNED_IN : store.checkout(customer, cart);
+        }, executor);
+    }
+
+    // Completes empty when the session is unknown or expired.
+    public CompletableFuture<Optional<Customer>> account(String token) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(sessions.resolve(token)), executor);
+    }
+
+    public CompletableFuture<Optional<List<Order>>> orderHistory(String token) {
+        return account(token).thenCompose(customer -> customer.isPresent()
+                ? orderHistory(customer.get()).thenApply(Optional::of)
+                : CompletableFuture.completedFuture(Optional.empty()));
+    }
+
+    public CompletableFuture<Optional<OrderHistory.Page>> orderHistory(String token, String pageToken, int pageSize) {
+        return account(token).thenCompose(customer -> customer.isPresent()
+                ? orderHistory(customer.get(), pageToken, pageSize).thenApply(Optional::of)
+                : CompletableFuture.completedFuture(Optional.empty()));
+    }
+
+    // Stops taking requests and waits briefly for the ones already in flight.
+    @Override
+    public void close() {
+        sessions.close();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.util.*;
+
+// ProductSearchIndex class
+// Trie over lower-cased product names for partial and misspelled searches. Results are ranked:
+// exact name, then names starting with the query (shortest first), then names within a small edit
+// distance of the query (closest first).
+//
+// An index never changes once built, so searches need no lock. Changes go through an Editor, which
+// copies only the nodes on the paths it touches and shares the rest with the index it started from.
+// Nodes the editor has already copied are changed in place, so a batch of additions copies each
+// node at most once.
+class ProductSearchIndex {
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    // Declared after the empty arrays, which the root node needs.
+    static final ProductSearchIndex EMPTY = new ProductSearchIndex(new Node(null));
+
+    // Children are kept in small parallel arrays sorted by character, which is far lighter than a map per node.
+    private static final class Node {
+        // The editor that created this node and may still change it; no other editor ever does.
+        final Object owner;
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        Product[] products;
+
+        Node(Object owner) {
+            this.owner = owner;
+        }
+
+        Node child(char key) {
+            int i = Arrays.binarySearch(keys, key);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node copy(Object newOwner) {
+            Node copy = new Node(newOwner);
+            copy.keys = keys;
+            copy.children = children.clone();
+            copy.products = products;
+            return copy;
+        }
+
+        // The child for key, copied first if it belongs to an earlier version. This node must
+        // already belong to owner.
+        Node editableChild(char key, Object owner) {
+            int i = Arrays.binarySearch(keys, key);
+            if (i >= 0) {
+                Node child = children[i];
+                if (child.owner != owner) {
+                    child = child.copy(owner);
+                    children[i] = child;
+                }
+                return child;
+            }
+            int at = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newKeys[at] = key;
+            newChildren[at] = new Node(owner);
+            System.arraycopy(keys, at, newKeys, at + 1, keys.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[at];
+        }
+    }
+
+    // Builds the next version of an index. Single-threaded; build() ends the edit.
+    static final class Editor {
+        private Object owner = new Object();
+        private Node root;
+
+        private Editor(Node root) {
+            this.root = root;
+        }
+
+        public Editor add(Product product) {
+            Node node = path(product);
+            if (node.products == null) {
+                node.products = new Product[] {product};
+            } else {
+                Product[] grown = Arrays.copyOf(node.products, node.products.length + 1);
+                grown[grown.length - 1] = product;
+                node.products = grown;
+            }
+            return this;
+        }
+
+        // Removes this exact product object; other products with the same name stay.
+        public Editor remove(Product product) {
+            Node node = path(product);
+            if (node.products == null) {
+                return this;
+            }
+            Product[] remaining = new Product[node.products.length];
+            int count = 0;
+            for (Product indexed : node.products) {
+                if (indexed != product) {
+                    remaining[count++] = indexed;
+                }
+            }
+            node.products = count == 0 ? null : Arrays.copyOf(remaining, count);
+            return this;
+        }
+
+        public ProductSearchIndex build() {
+            if (owner == null) {
+                throw new IllegalStateException("This edit has already been built.");
+            }
+            owner = null;
+            return new ProductSearchIndex(root);
+        }
+
+        private Node path(Product product) {
+            if (owner == null) {
+                throw new IllegalStateException("This edit has already been built.");
+            }
+            if (root.owner != owner) {
+                root = root.copy(owner);
+            }
+            String key = normalize(product.getProductName());
+            Node node = root;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.editableChild(key.charAt(i), owner);
+            }
+            return node;
+        }
+    }
+
+    private static final class Match {
+        final Product product;
+        final int rank;
+        final int distance;
+
+        Match(Product product, int rank, int distance) {
+            this.product = product;
+            this.rank = rank;
+            this.distance = distance;
+        }
+    }
+
+    private static final Comparator<Match> RANKING = Comparator.<Match>comparingInt(m -> m.rank)
+            .thenComparingInt(m -> m.distance)
+            .thenComparingInt(m -> m.product.getProductName().length())
+            .thenComparing(m -> m.product.getProductName(), String.CASE_INSENSITIVE_ORDER);
+
+    private final Node root;
+
+    private ProductSearchIndex(Node root) {
+        this.root = root;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public Editor edit() {
+        return new Editor(root);
+    }
+
+    // Short queries only match exactly or by prefix; longer ones tolerate one or two typos.
+    private static int allowedDistance(int queryLength) {
+        if (queryLength <= 3) {
+            return 0;
+        }
+        return queryLength <= 6 ? 1 : 2;
+    }
+
+    public List<Product> search(String query, int limit) {
+        String key = normalize(query);
+        if (key.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Match> matches = new ArrayList<>();
+        Set<Product> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        collectPrefixMatches(key, limit, matches, seen);
+        int maxDistance = allowedDistance(key.length());
+        if (maxDistance > 0) {
+            // One reusable row per trie depth; no branch survives deeper than key length + maxDistance.
+            int[][] rows = new int[key.length() + maxDistance + 2][key.length() + 1];
+            for (int i = 0; i <= key.length(); i++) {
+                rows[0][i] = i;
+            }
+            collectFuzzyMatches(root, key, rows, 1, '\0', maxDistance, matches, seen);
+        }
+        matches.sort(RANKING);
+        List<Product> results = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            results.add(matches.get(i).product);
+        }
+        return results;
+    }
+
+    // Breadth-first below the query's node, so the shortest completions are found first.
+    private void collectPrefixMatches(String key, int limit, List<Match> matches, Set<Product> seen) {
+        Node start = root;
+        for (int i = 0; i < key.length() && start != null; i++) {
+            start = start.child(key.charAt(i));
+        }
+        if (start == null) {
+            return;
+        }
+        ArrayDeque<Node> level = new ArrayDeque<>();
+        level.add(start);
+        boolean exact = true;
+        while (!level.isEmpty() && matches.size() < limit) {
+            ArrayDeque<Node> next = new ArrayDeque<>();
+            for (Node node : level) {
+                if (node.products != null) {
+                    for (Product product : node.products) {
+                        matches.add(new Match(product, exact ? 0 : 1, 0));
+                        seen.add(product);
+                    }
+                }
+                Collections.addAll(next, node.children);
+            }
+            level = next;
+            exact = false;
+        }
+    }
+
+    // Edit distance (with adjacent transpositions counting as one edit) computed one trie edge at a
+    // time; a branch is abandoned as soon as every cell of its row exceeds the allowed distance, so most
+    // of the trie is never visited.
+    private void collectFuzzyMatches(Node node, String key, int[][] rows, int depth, char parentLetter,
+            int maxDistance, List<Match> matches, Set<Product> seen) {
+        int[] previousRow = rows[depth - 1];
+        int[] row = rows[depth];
+        for (int c = 0; c < node.keys.length; c++) {
+            char letter = node.keys[c];
+            row[0] = depth;
+            int rowMinimum = row[0];
+            for (int i = 1; i < row.length; i++) {
+                int substitute = previousRow[i - 1] + (key.charAt(i - 1) == letter ? 0 : 1);
+                int cell = Math.min(Math.min(row[i - 1] + 1, previousRow[i] + 1), substitute);
+                if (depth > 1 && i > 1 && key.charAt(i - 1) == parentLetter && key.charAt(i - 2) == letter) {
+                    cell = Math.min(cell, rows[depth - 2][i - 2] + 1);
+                }
+                row[i] = cell;
+                rowMinimum = Math.min(rowMinimum, cell);
+            }
+            Node child = node.children[c];
+            int distance = row[row.length - 1];
+            if (distance <= maxDistance && child.products != null) {
+                for (Product product : child.products) {
+                    if (seen.add(product)) {
+                        matches.add(new Match(product, 2, distance));
+                    }
+                }
+            }
+            if (rowMinimum <= maxDistance && depth + 1 < rows.length) {
+                collectFuzzyMatches(child, key, rows, depth + 1, letter, maxDistance, matches, seen);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// SessionManager class
+// Issues a token on login and resolves it back to the Customer with one map lookup, so later
+// purchase, history and account calls skip the credential check. Sessions expire after a period of
+// inactivity. Expiry is driven by a TimingWheel, so idle sessions are dropped without a thread per
+// session or a scan of all sessions.
+class SessionManager implements AutoCloseable {
+    static final class Session {
+        final String token;
+        final Customer customer;
+        volatile long expiresAtMillis;
+
+        Session(String token, Customer customer, long expiresAtMillis) {
+            this.token = token;
+            this.customer = customer;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long ttlMillis;
+    private final TimingWheel<Session> wheel;
+
+    SessionManager(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.wheel = new TimingWheel<>("session-expiry", 100, 512, this::expire);
+    }
+
+    // Starts a session for a customer who has already been authenticated.
+    public String open(Customer customer) {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(token, customer, TimingWheel.now() + ttlMillis);
+        sessions.put(token, session);
+        wheel.schedule(session, ttlMillis);
+        return token;
+    }
+
+    // Checks the password once and returns a session token, or null if the login failed.
+    public String login(CustomerRegistry customers, String email, String password) {
+        Customer customer = customers.loginByEmail(email, password);
+        return customer == null ? null : open(customer);
+    }
+
+    // The session's customer, or null if the token is unknown or expired. Each use extends the session.
+    public Customer resolve(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long nowMillis = TimingWheel.now();
+        if (session.expiresAtMillis <= nowMillis) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.expiresAtMillis = nowMillis + ttlMillis;
+        return session.customer;
+    }
+
+    public void logout(String token) {
+        sessions.remove(token);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    // Called by the wheel at the session's original deadline. A session that was used in the
+    // meantime goes back on the wheel for the time it has left.
+    private void expire(Session session) {
+        long remaining = session.expiresAtMillis - TimingWheel.now();
+        if (remaining > 0 && sessions.get(session.token) == session) {
+            wheel.schedule(session, remaining);
+        } else {
+            sessions.remove(session.token, session);
+        }
+    }
+
+    @Override
+    public void close() {
+        wheel.close();
+        sessions.clear();
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// StockReservations class
+// Holds stock for customers who are still in checkout. Reserving moves units from a product's stock
+// into its reserved stock, so other buyers cannot take them; confirming turns them into an order and
+// releasing or expiring puts them back. Each change happens under the product's stock lock in
+// ProductStore, so reservations on different products never wait for each other. Expired
+// reservations are handed back in bulk by a TimingWheel rather than found by scanning; every store
+// shares one wheel, so creating stores never leaves expiry threads behind.
+class StockReservations {
+    enum State {
+        HELD, CONFIRMED, RELEASED, EXPIRED
+    }
+
+    static final class Reservation {
+        private final StockReservations owner;
+        private final long id;
+        private final Customer customer;
+        private final Product product;
+        private final double quantity;
+        private final long expiresAtMillis;
+        // Changed only while holding the product's stock lock.
+        private volatile State state = State.HELD;
+        private TimingWheel.Timeout<Reservation> timeout;
+
+        Reservation(StockReservations owner, long id, Customer customer, Product product, double quantity,
+                long expiresAtMillis) {
+            this.owner = owner;
+            this.id = id;
+            this.customer = customer;
+            this.product = product;
+            this.quantity = quantity;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        public double getQuantity() {
+            return quantity;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        // Milliseconds until the reservation lapses; zero once it has.
+        public long remainingMillis() {
+            return Math.max(0, expiresAtMillis - TimingWheel.now());
+        }
+    }
+
+    private static final TimingWheel<Reservation> WHEEL = new TimingWheel<>("reservation-expiry", 100, 64,
+            reservation -> reservation.owner.expire(reservation));
+
+    private final ProductStore store;
+    private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+    StockReservations(ProductStore store) {
+        this.store = store;
+    }
+
+    // Holds quantity units of the product for ttlMillis. Returns null if there is not enough stock.
+    public Reservation reserve(Customer customer, Product product, double quantity, long ttlMillis) {
+        if (!OrderResult.isValidQuantity(quantity)) {
+            throw new IllegalArgumentException(OrderResult.INVALID_QUANTITY.getMessage());
+        }
+        if (product.getProductStock() < quantity) {
+            return null;
+        }
+        Reservation reservation = new Reservation(this, IdGenerator.nextId(), customer, product, quantity,
+                TimingWheel.now() + ttlMillis);
+        ReentrantLock lock = store.stockLock(product);
+        lock.lock();
+        try {
+            if (product.getProductStock() < quantity) {
+                return null;
+            }
+            product.setProductStock(product.getProductStock() - quantity);
+            product.setReservedStock(product.getReservedStock() + quantity);
+            publishStockChange(product, -quantity);
+            reservations.put(reservation.id, reservation);
+            reservation.timeout = WHEEL.schedule(reservation, ttlMillis);
+        } finally {
+            lock.unlock();
+        }
+        return reservation;
+    }
+
+    // The customer's reservation that is still held, or null.
+    public Reservation find(Customer customer, long id) {
+        Reservation reservation = reservations.get(id);
+        return reservation != null && reservation.customer == customer ? reservation : null;
+    }
+
+    // Moves a held reservation to CONFIRMED; the units leave reserved stock for good. The caller must
+    // hold the product's stock lock and has already checked that the reservation is HELD.
+    void confirmLocked(Reservation reservation) {
+        Product product = reservation.product;
+        product.setReservedStock(product.getReservedStock() - reservation.quantity);
+        reservation.state = State.CONFIRMED;
+        forget(reservation);
+    }
+
+    // Puts the units back on sale. Returns false if the reservation was no longer held.
+    public boolean release(Reservation reservation) {
+        return giveBack(reservation, State.RELEASED);
+    }
+
+    public int size() {
+        return reservations.size();
+    }
+
+    private void expire(Reservation reservation) {
+        if (giveBack(reservation, State.EXPIRED)) {
+            StoreMetrics.RESERVATIONS_EXPIRED.increment();
+        }
+    }
+
+    private boolean giveBack(Reservation reservation, State state) {
+        Product product = reservation.product;
+        ReentrantLock lock = store.stockLock(product);
+        lock.lock();
+        try {
+            if (reservation.state != State.HELD) {
+                return false;
+            }
+            product.setReservedStock(product.getReservedStock() - reservation.quantity);
+            product.setProductStock(product.getProductStock() + reservation.quantity);
+            publishStockChange(product, reservation.quantity);
+            reservation.state = state;
+        } finally {
+            lock.unlock();
+        }
+        forget(reservation);
+        return true;
+    }
+
+    private void publishStockChange(Product product, double delta) {
+        InventoryEventBus events = store.getEventBus();
+        if (events != null) {
+            events.publishStockChange(product, delta);
+        }
+    }
+
+    private void forget(Reservation reservation) {
+        reservations.remove(reservation.id, reservation);
+        reservation.timeout.cancel();
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// StoreClient class
+// Blocking client for StoreServer. call() sends one request and waits for its answer. For pipelining,
+// send() only buffers requests; flush() writes them out together and receive() reads the answers in
+// the order the requests were sent. One client is one connection and is not thread-safe.
+class StoreClient implements AutoCloseable {
+    static final class Response {
+        private final boolean ok;
+        private final String message;
+        private final String nextToken;
+        private final List<String> lines;
+
+        Response(boolean ok, String message, String nextToken, List<String> lines) {
+            this.ok = ok;
+            this.message = message;
+            this.nextToken = nextToken;
+            this.lines = lines;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        // The error message; null for successful responses.
+        public String getMessage() {
+            return message;
+        }
+
+        public String getNextToken() {
+            return nextToken;
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    StoreClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 64 * 1024);
+        this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    // Queues a request without sending it.
+    public void send(String command, String... arguments) throws IOException {
+        out.write(command);
+        for (String argument : arguments) {
+            out.write('\t');
+            out.write(argument == null ? "" : argument);
+        }
+        out.write('\n');
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public Response receive() throws IOException {
+        String status = in.readLine();
+        if (status == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        String[] fields = status.split("\t", 3);
+        if (fields[0].equals("ERR")) {
+            return new Response(false, fields.length > 1 ? fields[1] : "", null, Collections.emptyList());
+        }
+        int count = Integer.parseInt(fields[1]);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(in.readLine());
+        }
+        return new Response(true, null, fields.length > 2 ? fields[2] : null, lines);
+    }
+
+    public Response call(String command, String... arguments) throws IOException {
+        send(command, arguments);
+        flush();
+        return receive();
+    }
+
+    public Response list(String token) throws IOException {
+        return call("LIST", token);
+    }
+
+    public Response search(String query) throws IOException {
+        return call("SEARCH", query);
+    }
+
+    public Response register(String name, String email, String password, double credit) throws IOException {
+        return call("REGISTER", name, email, password, Double.toString(credit));
+    }
+
+    public Response login(String email, String password) throws IOException {
+        return call("LOGIN", email, password);
+    }
+
+    public Response purchase(String productName, double quantity) throws IOException {
+        return call("PURCHASE", productName, Double.toString(quantity));
+    }
+
+    public Response reserve(String productName, double quantity, long seconds) throws IOException {
+        return call("RESERVE", productName, Double.toString(quantity), Long.toString(seconds));
+    }
+
+    public Response confirm(String reservationId) throws IOException {
+        return call("CONFIRM", reservationId);
+    }
+
+    public Response release(String reservationId) throws IOException {
+        return call("RELEASE", reservationId);
+    }
+
+    public Response history(String token) throws IOException {
+        return call("HISTORY", token);
+    }
+
+    public Response invoice(String token) throws IOException {
+        return call("INVOICE", token);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // Load test against a running server. Each connection signs up its own user, then sends batches of
+    // pipelined searches and purchases and waits for each batch's answers before sending the next.
+    // Usage: java StoreClient [port] [connections] [batches per connection] [pipeline depth]
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int batches = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        List<String> products = new ArrayList<>();
+        try (StoreClient client = new StoreClient(port)) {
+            for (String line : client.list(null).getLines()) {
+                products.add(line.split("\t")[1]);
+            }
+        }
+        if (products.isEmpty()) {
+            System.err.println("The server has no products.");
+            return;
+        }
+
+        LatencyHistogram batchLatency = new LatencyHistogram();
+        AtomicLong requests = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(connections);
+        String run = Long.toHexString(System.nanoTime());
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            String user = "load-" + run + "-" + c;
+            new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(user.hashCode());
+                try (StoreClient client = new StoreClient(port)) {
+                    client.register(user, user + "@example.com", "secret", 1e9);
+                    client.login(user + "@example.com", "secret");
+                    for (int b = 0; b < batches; b++) {
+                        long sent = System.nanoTime();
+                        for (int i = 0; i < depth; i++) {
+                            String product = products.get(random.nextInt(products.size()));
+                            if (random.nextBoolean()) {
+                                client.send("SEARCH", product);
+                            } else {
+                                client.send("PURCHASE", product, "1");
+                            }
+                        }
+                        client.flush();
+                        for (int i = 0; i < depth; i++) {
+                            if (!client.receive().isOk()) {
+                                rejected.incrementAndGet();
+                            }
+                        }
+                        batchLatency.record(System.nanoTime() - sent);
+                        requests.addAndGet(depth);
+                    }
+                } catch (IOException e) {
+                    System.err.println(user + ": " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, user).start();
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d requests (%d rejected) in %.2f s: %.0f requests/s%n", requests.get(), rejected.get(),
+                seconds, requests.get() / seconds);
+        System.out.printf("Batch of %d round trip: p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us%n", depth,
+                batchLatency.valueAtPercentile(50) / 1e3, batchLatency.valueAtPercentile(99) / 1e3,
+                batchLatency.valueAtPercentile(99.9) / 1e3, batchLatency.getMax() / 1e3);
+    }
+}
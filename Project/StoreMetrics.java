@@ -0,0 +1,255 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.*;
+
+// StoreMetrics class
+// Process-wide counters and latency timers for the store's hot paths, exported as JMX MBeans under
+// "store.metrics" and as a text table that can be dumped periodically. Counters are LongAdders, so
+// threads that bump the same counter do not fight over one cache line. A timer counts every call but
+// reads the clock only on a sample of them: 1 in 64 for sub-microsecond lookups, 1 in 8 or 16 for the
+// order and search paths, every call for rare or slow operations. That keeps the clock reads and the
+// histogram update off most calls. Samples go into a LatencyHistogram.
+class StoreMetrics {
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    static final class Timer {
+        private final LongAdder calls = new LongAdder();
+        private final LatencyHistogram samples = new LatencyHistogram();
+        private final int sampleMask;
+
+        // sampleEvery must be a power of two; 1 times every call.
+        Timer(int sampleEvery) {
+            if (Integer.bitCount(sampleEvery) != 1) {
+                throw new IllegalArgumentException("Sample rate must be a power of two.");
+            }
+            this.sampleMask = sampleEvery - 1;
+        }
+
+        // Pass the result to stop() when the operation ends.
+        public long start() {
+            calls.increment();
+            if (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+                return NOT_SAMPLED;
+            }
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            if (start != NOT_SAMPLED) {
+                samples.record(System.nanoTime() - start);
+            }
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public LatencyHistogram getSamples() {
+            return samples;
+        }
+    }
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+
+    static final Timer PLACE_ORDER = timer("store.placeOrder", 16);
+    static final Timer CHECKOUT = timer("store.checkout", 1);
+    static final Timer SEARCH_ONE_PRODUCT = timer("store.searchOneProduct", 16);
+    static final Timer SEARCH_PRODUCTS = timer("store.searchProducts", 8);
+    static final Timer STOCK_AVAILABLE = timer("store.stockAvailable", 64);
+    static final Timer CREDITS_AVAILABLE = timer("store.creditsAvailable", 64);
+    static final Timer GET_ALL_PRODUCT_LIST = timer("store.getAllProductList", 1);
+    static final Timer REGISTER = timer("customers.register", 1);
+    static final Timer LOGIN = timer("customers.login", 64);
+    static final Timer PRINT_INVOICE = timer("invoice.print", 16);
+
+    static final Counter OUT_OF_STOCK_THROWN = counter("exceptions.outOfStock");
+    static final Counter OUT_OF_CREDITS_THROWN = counter("exceptions.outOfCredits");
+    static final Counter RESERVATIONS_EXPIRED = counter("reservations.expired");
+    private static final Counter[] ORDER_RESULTS = new Counter[OrderResult.Status.values().length];
+
+    static {
+        for (OrderResult.Status status : OrderResult.Status.values()) {
+            ORDER_RESULTS[status.ordinal()] = counter("orders." + status.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static ScheduledExecutorService dumper;
+    private static volatile boolean exported;
+
+    // Metrics created after registerMBeans() are exported as they appear.
+    public static Counter counter(String name) {
+        Counter counter = COUNTERS.get(name);
+        if (counter == null) {
+            counter = COUNTERS.computeIfAbsent(name, key -> new Counter());
+            if (exported) {
+                registerMBeans();
+            }
+        }
+        return counter;
+    }
+
+    public static Timer timer(String name, int sampleEvery) {
+        Timer timer = TIMERS.get(name);
+        if (timer == null) {
+            timer = TIMERS.computeIfAbsent(name, key -> new Timer(sampleEvery));
+            if (exported) {
+                registerMBeans();
+            }
+        }
+        return timer;
+    }
+
+    public static void orderResult(OrderResult result) {
+        ORDER_RESULTS[result.getStatus().ordinal()].increment();
+    }
+
+    // Counts a menu choice. Menu actions wait on the user, so they are counted rather than timed; the
+    // store calls behind them have their own timers.
+    public static void menuAction(int choice) {
+        counter("menu." + choice).increment();
+    }
+
+    public static String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-26s %12s %10s %10s %10s %10s %10s%n", "timer", "calls", "samples", "p50 us",
+                "p99 us", "p999 us", "max us"));
+        for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+            LatencyHistogram samples = entry.getValue().getSamples();
+            text.append(String.format("%-26s %12d %10d %10.1f %10.1f %10.1f %10.1f%n", entry.getKey(),
+                    entry.getValue().getCalls(), samples.getCount(), samples.valueAtPercentile(50) / 1e3,
+                    samples.valueAtPercentile(99) / 1e3, samples.valueAtPercentile(99.9) / 1e3,
+                    samples.getMax() / 1e3));
+        }
+        text.append(String.format("%-26s %12s%n", "counter", "count"));
+        for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+            text.append(String.format("%-26s %12d%n", entry.getKey(), entry.getValue().get()));
+        }
+        return text.toString();
+    }
+
+    // Prints the table every periodSeconds on a daemon thread. Later calls replace the earlier schedule.
+    public static synchronized void startDumping(long periodSeconds, PrintStream out) {
+        if (dumper != null) {
+            dumper.shutdownNow();
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // Registers one MBean per metric with the platform MBean server, e.g.
+    // store.metrics:type=Timer,name=store.placeOrder. Metrics that are already registered are skipped.
+    public static synchronized void registerMBeans() {
+        exported = true;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+                Timer timer = entry.getValue();
+                Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+                attributes.put("Calls", timer::getCalls);
+                attributes.put("Samples", () -> timer.getSamples().getCount());
+                attributes.put("P50Micros", () -> timer.getSamples().valueAtPercentile(50) / 1e3);
+                attributes.put("P99Micros", () -> timer.getSamples().valueAtPercentile(99) / 1e3);
+                attributes.put("P999Micros", () -> timer.getSamples().valueAtPercentile(99.9) / 1e3);
+                attributes.put("MaxMicros", () -> timer.getSamples().getMax() / 1e3);
+                register(server, "Timer", entry.getKey(), attributes);
+            }
+            for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+                Counter counter = entry.getValue();
+                register(server, "Counter", entry.getKey(), Collections.singletonMap("Count", counter::get));
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register store metrics", e);
+        }
+    }
+
+    private static void register(MBeanServer server, String type, String name, Map<String, Supplier<Object>> attributes)
+            throws JMException {
+        ObjectName objectName = new ObjectName("store.metrics", new Hashtable<>(Map.of("type", type, "name", name)));
+        if (!server.isRegistered(objectName)) {
+            server.registerMBean(new MetricMBean(type + " " + name, attributes), objectName);
+        }
+    }
+
+    // Read-only MBean whose attributes are read from the live metric on each request.
+    private static final class MetricMBean implements DynamicMBean {
+        private final Map<String, Supplier<Object>> attributes;
+        private final MBeanInfo info;
+
+        MetricMBean(String description, Map<String, Supplier<Object>> attributes) {
+            this.attributes = attributes;
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Supplier<Object>> entry : attributes.entrySet()) {
+                String type = entry.getValue().get().getClass().getName();
+                infos.add(new MBeanAttributeInfo(entry.getKey(), type, entry.getKey(), true, false, false));
+            }
+            this.info = new MBeanInfo(MetricMBean.class.getName(), description,
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Supplier<Object> value = attributes.get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value.get();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                Supplier<Object> value = attributes.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value.get()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Store metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// StorePersistence class
+// Keeps a store across restarts as the last snapshot plus the write-ahead log written since it.
+// open() loads the snapshot, replays the log from the snapshot's checkpoint and attaches the log to the
+// store and the customer registry, so every order, registration and catalog change from then on is
+// logged before it takes effect. Snapshots are taken in the background on a
+// schedule and once more on close(); each lets the log drop the segments it covers, so the log and the
+// replay at the next start stay short.
+class StorePersistence implements AutoCloseable {
+    private final Path snapshotFile;
+    private final ProductStore store;
+    private final CustomerRegistry customers;
+    private final WriteAheadLog log;
+    private ScheduledExecutorService scheduler;
+    private CompletableFuture<Path> lastSnapshot = CompletableFuture.completedFuture(null);
+    private boolean closed;
+
+    private StorePersistence(Path snapshotFile, ProductStore store, CustomerRegistry customers, WriteAheadLog log) {
+        this.snapshotFile = snapshotFile;
+        this.store = store;
+        this.customers = customers;
+        this.log = log;
+    }
+
+    // Saved customers are registered with the given registry, their orders loading straight into its
+    // order archive if it has one. Without a snapshot the store starts from
+    // the default catalog and saves it straight away, so the log always continues a snapshot with the
+    // same product ids. A snapshot that cannot be read fails the open rather than starting afresh,
+    // since the log on disk only makes sense on top of it.
+    static StorePersistence open(Path snapshotFile, Path logDirectory, CustomerRegistry customers,
+            Supplier<List<Product>> defaultCatalog) throws IOException {
+        ProductStore store;
+        long checkpoint = 0;
+        boolean saved = Files.exists(snapshotFile);
+        if (saved) {
+            StoreSnapshot snapshot = StoreSnapshot.load(snapshotFile, customers.getArchive());
+            store = snapshot.getStore();
+            for (Customer customer : snapshot.getCustomers()) {
+                customers.register(customer);
+            }
+            checkpoint = snapshot.getLogCheckpoint();
+        } else {
+            store = new ProductStore(defaultCatalog.get());
+        }
+        WriteAheadLog log = new WriteAheadLog(logDirectory, checkpoint);
+        try {
+            log.replay(WriteAheadLog.applyTo(store, customers), checkpoint);
+            store.setWriteAheadLog(log);
+            customers.setWriteAheadLog(log);
+            if (!saved) {
+                StoreSnapshot.write(store, customers.getCustomers(), snapshotFile, log);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        return new StorePersistence(snapshotFile, store, customers, log);
+    }
+
+    public ProductStore getStore() {
+        return store;
+    }
+
+    public CustomerRegistry getCustomers() {
+        return customers;
+    }
+
+    // Takes a snapshot every periodSeconds on a daemon thread; zero or less turns the schedule off.
+    public synchronized void scheduleSnapshots(long periodSeconds) {
+        if (periodSeconds <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-schedule");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshotAsync();
+            } catch (RuntimeException e) {
+                System.err.println("Could not start a snapshot: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    // Cuts a snapshot now and writes it in the background; orders pause only for the cut. While the
+    // previous snapshot is still being written, or once closing has begun, returns the last one instead.
+    public synchronized CompletableFuture<Path> snapshotAsync() {
+        if (closed || !lastSnapshot.isDone()) {
+            return lastSnapshot;
+        }
+        lastSnapshot = startSnapshot().whenComplete((file, failure) -> {
+            if (failure != null) {
+                System.err.println("Could not save " + snapshotFile + ": " + failure.getMessage());
+            }
+        });
+        return lastSnapshot;
+    }
+
+    // The cut is taken with registrations paused as well as orders, so no logged change can fall
+    // between the snapshot and its checkpoint.
+    private CompletableFuture<Path> startSnapshot() {
+        return customers.whileChangesPaused(
+                () -> StoreSnapshot.writeAsync(store, customers.getCustomers(), snapshotFile, log));
+    }
+
+    // Waits for a background snapshot, saves a final one and closes the log; no orders may be placed
+    // afterwards.
+    @Override
+    public void close() throws IOException {
+        CompletableFuture<Path> running;
+        synchronized (this) {
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+            running = lastSnapshot;
+        }
+        try {
+            running.join();
+        } catch (CompletionException e) {
+            // Already reported; the final snapshot below replaces it.
+        }
+        try {
+            startSnapshot().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            log.close();
+        }
+    }
+}
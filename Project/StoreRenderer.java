@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+// StoreRenderer class
+// Formats product lines and invoices into one reusable buffer and hands it to the destination in large
+// chunks, instead of one synchronized println per field. Not thread-safe: use one renderer per thread.
+class StoreRenderer {
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+
+    private static final ThreadLocal<StoreRenderer> STDOUT =
+            ThreadLocal.withInitial(() -> new StoreRenderer(new OutputStreamWriter(System.out)));
+
+    private final StringBuilder text = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private char[] chars = new char[FLUSH_THRESHOLD + 1024];
+    private final Writer writer;
+    private WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+
+    StoreRenderer(Writer writer) {
+        this.writer = writer;
+        this.channel = null;
+        this.encoder = null;
+        this.bytes = null;
+    }
+
+    StoreRenderer(WritableByteChannel channel) {
+        this.writer = null;
+        this.channel = channel;
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+        this.bytes = ByteBuffer.allocateDirect(FLUSH_THRESHOLD * 2);
+    }
+
+    // Flushes to the current channel and switches to another, so one buffer and encoder can serve
+    // many output files.
+    public StoreRenderer retarget(WritableByteChannel channel) {
+        if (writer != null) {
+            throw new IllegalStateException("Only channel renderers can be retargeted.");
+        }
+        drain();
+        this.channel = channel;
+        return this;
+    }
+
+    // The calling thread's renderer for standard output.
+    public static StoreRenderer stdout() {
+        return STDOUT.get();
+    }
+
+    private StoreRenderer endLine() {
+        text.append(System.lineSeparator());
+        if (text.length() >= FLUSH_THRESHOLD) {
+            drain();
+        }
+        return this;
+    }
+
+    public StoreRenderer line(CharSequence value) {
+        text.append(value);
+        return endLine();
+    }
+
+    public StoreRenderer product(long productNumber, String productName, double productPrice, double productStock) {
+        text.append("Product Id: ");
+        IdGenerator.appendTo(text, productNumber);
+        text.append(" Product Name: ").append(productName)
+                .append(" Product Price: ").append(productPrice)
+                .append(" Product Stock: ").append(productStock);
+        return endLine();
+    }
+
+    public StoreRenderer product(Product product) {
+        return product(product.getProductNumber(), product.getProductName(), product.getProductPrice(),
+                product.getProductStock());
+    }
+
+    public StoreRenderer invoice(Order order) {
+        return invoice(order, InvoiceTemplate.DEFAULT);
+    }
+
+    public StoreRenderer invoice(Order order, InvoiceTemplate template) {
+        if (order.getQuantity() <= 0) {
+            return line("No product purchased.");
+        }
+        template.appendTo(text, order);
+        if (text.length() >= FLUSH_THRESHOLD) {
+            drain();
+        }
+        return this;
+    }
+
+    // Hands everything rendered so far to the destination and flushes it.
+    public void flush() {
+        drain();
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void drain() {
+        int length = text.length();
+        if (length == 0) {
+            return;
+        }
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        text.getChars(0, length, chars, 0);
+        text.setLength(0);
+        try {
+            if (writer != null) {
+                writer.write(chars, 0, length);
+            } else {
+                encode(CharBuffer.wrap(chars, 0, length));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void encode(CharBuffer pending) throws IOException {
+        encoder.reset();
+        while (true) {
+            boolean done = !encoder.encode(pending, bytes, true).isOverflow();
+            if (done) {
+                encoder.flush(bytes);
+            }
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+            if (done) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+
+// StoreServer class
+// Non-blocking line-protocol server for the store on a loopback port. One selector thread accepts
+// connections, reads requests, runs them against the in-memory store and writes the responses.
+// Clients may pipeline: every complete request in a read is answered in order, and all of those answers
+// go out together in one write. A connection whose client stops reading is no longer read from until
+// its pending output drains.
+//
+// Requests are one line each, with tab-separated fields:
+//   LIST [token]                              products, 100 per page
+//   SEARCH <query>                            up to 10 best matches
+//   REGISTER <name> <email> <password> <credit>
+//   LOGIN <email> <password>                  signs this connection in
+//   PURCHASE <product name> <quantity>
+//   RESERVE <product name> <quantity> [seconds]  holds the stock, 15 minutes by default, at most a day
+//   CONFIRM <reservation id>                  buys the reserved units
+//   RELEASE <reservation id>                  puts them back on sale
+//   HISTORY [token]                           newest orders first, 20 per page
+//   INVOICE [token]                           the same orders, rendered as invoices
+// Each response starts with "OK<tab><line count>[<tab><next page token>]" followed by that many lines,
+// or is the single line "ERR<tab><message>". Numbers are checked here, before they reach the store:
+// quantities must be positive, credit between 0 and a trillion, and reservations 1 second to a day.
+//   product line: id, name, price, stock
+//   order line:   order number, date, product name, quantity, total
+//   reservation line: reservation id, product name, quantity, seconds left
+class StoreServer implements AutoCloseable {
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    private static final int LIST_PAGE_SIZE = 100;
+    private static final int HISTORY_PAGE_SIZE = 20;
+    private static final long RESERVATION_SECONDS = 15 * 60;
+    private static final long MAX_RESERVATION_SECONDS = 24 * 60 * 60;
+    // Well below 2^53 minor units, so every credit the server accepts is exact in a double.
+    private static final double MAX_CREDIT = 1e12;
+    private static final InvoiceTemplate INVOICE = InvoiceTemplate.compile(String.join("\n",
+            "Invoice:",
+            "Order Number: {orderNumber}",
+            "Order Date: {orderDate}",
+            "Customer Name: {customerName}",
+            "Product Name: {productName}",
+            "Quantity: {quantity}",
+            "Total Amount: {totalAmount}",
+            ""));
+
+    private static final class Connection {
+        ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+        // Always in write mode: position is the end of the output not yet sent.
+        ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+        Customer customer;
+        // Set after an over-long request: the rest of that line is skipped, not parsed as a new request.
+        boolean discarding;
+    }
+
+    private final ProductStore store;
+    private final CustomerRegistry customers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private final StringBuilder response = new StringBuilder(16 * 1024);
+    private final StringBuilder body = new StringBuilder(16 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private volatile boolean running = true;
+
+    // Binds to the loopback interface; port 0 picks a free port.
+    StoreServer(ProductStore store, CustomerRegistry customers, int port) throws IOException {
+        this.store = store;
+        this.customers = customers;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::serve, "store-server");
+    }
+
+    public StoreServer start() {
+        thread.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    private void serve() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                System.err.println("Store server stopped: " + e.getMessage());
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isWritable()) {
+                            flush(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(connection.in) < 0) {
+            close(key);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        byte[] bytes = in.array();
+        int lineStart = in.position();
+        for (int i = lineStart; i < in.limit(); i++) {
+            if (bytes[i] == '\n') {
+                if (connection.discarding) {
+                    connection.discarding = false;
+                } else {
+                    int end = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+                    handle(connection, new String(bytes, lineStart, end - lineStart, StandardCharsets.UTF_8));
+                }
+                lineStart = i + 1;
+            }
+        }
+        in.position(lineStart);
+        in.compact();
+        if (!in.hasRemaining()) {
+            if (connection.discarding) {
+                in.clear();
+            } else if (in.capacity() >= MAX_LINE_BYTES) {
+                response.append("ERR\tRequest line too long\n");
+                connection.discarding = true;
+                in.clear();
+            } else {
+                connection.in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+            }
+        }
+        if (response.length() > 0) {
+            encode(connection);
+            flush(key);
+        }
+    }
+
+    private void encode(Connection connection) {
+        CharBuffer pending = CharBuffer.wrap(response);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(pending, connection.out, true);
+            if (result.isOverflow()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(connection.out.capacity() * 2,
+                        connection.out.position() + pending.remaining() * 3));
+                connection.out = bigger.put(connection.out.flip());
+                continue;
+            }
+            encoder.flush(connection.out);
+            break;
+        }
+        response.setLength(0);
+    }
+
+    // Writes as much pending output as the socket takes. Leftovers wait for OP_WRITE, and reading
+    // pauses while too much output is queued.
+    private void flush(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        out.flip();
+        ((SocketChannel) key.channel()).write(out);
+        out.compact();
+        int interest = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+        if (out.position() < MAX_PENDING_OUTPUT) {
+            interest |= SelectionKey.OP_READ;
+        }
+        key.interestOps(interest);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // Already gone
+        }
+    }
+
+    private void handle(Connection connection, String line) {
+        String[] fields = line.split("\t");
+        body.setLength(0);
+        try {
+            String nextToken;
+            switch (fields[0].toUpperCase(Locale.ROOT)) {
+                case "LIST": {
+                    ProductPage page = store.listProducts(LIST_PAGE_SIZE, argument(fields, 1, null),
+                            ProductPage.SortKey.INSERTION);
+                    for (Product product : page.getProducts()) {
+                        appendProduct(product);
+                    }
+                    nextToken = page.getNextToken();
+                    break;
+                }
+                case "SEARCH":
+                    for (Product product : store.searchProducts(required(fields, 1), 10)) {
+                        appendProduct(product);
+                    }
+                    nextToken = null;
+                    break;
+                case "REGISTER": {
+                    double credit = Double.parseDouble(required(fields, 4));
+                    if (!(credit >= 0 && credit <= MAX_CREDIT)) {
+                        error("Credit must be between 0 and " + (long) MAX_CREDIT);
+                        return;
+                    }
+                    Customer customer = new Customer(IdGenerator.nextId(), required(fields, 1), required(fields, 3),
+                            credit, required(fields, 2));
+                    CustomerRegistry.Registration registration = customers.register(customer);
+                    if (registration != CustomerRegistry.Registration.REGISTERED) {
+                        error(registration == CustomerRegistry.Registration.EMAIL_TAKEN
+                                ? "Email already registered" : "Name already taken");
+                        return;
+                    }
+                    nextToken = null;
+                    break;
+                }
+                case "LOGIN": {
+                    Customer customer = customers.loginByEmail(required(fields, 1), required(fields, 2));
+                    if (customer == null) {
+                        error("Wrong email or password");
+                        return;
+                    }
+                    connection.customer = customer;
+                    nextToken = null;
+                    break;
+                }
+                case "PURCHASE": {
+                    if (connection.customer == null) {
+                        error(OrderResult.NOT_SIGNED_IN.getMessage());
+                        return;
+                    }
+                    double quantity = Double.parseDouble(required(fields, 2));
+                    if (!OrderResult.isValidQuantity(quantity)) {
+                        error(OrderResult.INVALID_QUANTITY.getMessage());
+                        return;
+                    }
+                    OrderResult result = store.tryPlaceOrder(connection.customer, required(fields, 1), quantity);
+                    if (!result.isAccepted()) {
+                        error(result.getMessage());
+                        return;
+                    }
+                    appendOrder(result.getOrder());
+                    nextToken = null;
+                    break;
+                }
+                case "RESERVE": {
+                    if (connection.customer == null) {
+                        error(OrderResult.NOT_SIGNED_IN.getMessage());
+                        return;
+                    }
+                    String productName = required(fields, 1);
+                    double quantity = Double.parseDouble(required(fields, 2));
+                    if (!OrderResult.isValidQuantity(quantity)) {
+                        error(OrderResult.INVALID_QUANTITY.getMessage());
+                        return;
+                    }
+                    long seconds = Long.parseLong(argument(fields, 3, Long.toString(RESERVATION_SECONDS)));
+                    if (seconds < 1 || seconds > MAX_RESERVATION_SECONDS) {
+                        error("Reservations last between 1 and " + MAX_RESERVATION_SECONDS + " seconds");
+                        return;
+                    }
+                    StockReservations.Reservation reservation = store.reserve(connection.customer, productName,
+                            quantity, seconds * 1000);
+                    if (reservation == null) {
+                        error((store.findProduct(productName) == null ? OrderResult.UNKNOWN_PRODUCT
+                                : OrderResult.OUT_OF_STOCK).getMessage());
+                        return;
+                    }
+                    IdGenerator.appendTo(body, reservation.getId());
+                    body.append('\t').append(reservation.getProduct().getProductName())
+                            .append('\t').append(reservation.getQuantity())
+                            .append('\t').append(reservation.remainingMillis() / 1000)
+                            .append('\n');
+                    nextToken = null;
+                    break;
+                }
+                case "CONFIRM": {
+                    if (connection.customer == null) {
+                        error(OrderResult.NOT_SIGNED_IN.getMessage());
+                        return;
+                    }
+                    OrderResult result = store.confirmReservation(connection.customer,
+                            Long.parseUnsignedLong(required(fields, 1), 16));
+                    if (!result.isAccepted()) {
+                        error(result.getMessage());
+                        return;
+                    }
+                    appendOrder(result.getOrder());
+                    nextToken = null;
+                    break;
+                }
+                case "RELEASE":
+                    if (connection.customer == null) {
+                        error(OrderResult.NOT_SIGNED_IN.getMessage());
+                        return;
+                    }
+                    if (!store.releaseReservation(connection.customer, Long.parseUnsignedLong(required(fields, 1), 16))) {
+                        error(OrderResult.NO_RESERVATION.getMessage());
+                        return;
+                    }
+                    nextToken = null;
+                    break;
+                case "HISTORY":
+                case "INVOICE": {
+                    if (connection.customer == null) {
+                        error(OrderResult.NOT_SIGNED_IN.getMessage());
+                        return;
+                    }
+                    OrderHistory.Page page = connection.customer.getOrderHistory().page(argument(fields, 1, null),
+                            HISTORY_PAGE_SIZE);
+                    boolean invoices = fields[0].equalsIgnoreCase("INVOICE");
+                    for (Order order : page.getOrders()) {
+                        if (invoices) {
+                            INVOICE.appendTo(body, order);
+                        } else {
+                            appendOrder(order);
+                        }
+                    }
+                    nextToken = page.getNextToken();
+                    break;
+                }
+                default:
+                    error("Unknown command " + fields[0]);
+                    return;
+            }
+            int lines = 0;
+            for (int i = 0; i < body.length(); i++) {
+                if (body.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+            response.append("OK\t").append(lines);
+            if (nextToken != null) {
+                response.append('\t').append(nextToken);
+            }
+            response.append('\n').append(body);
+        } catch (RuntimeException e) {
+            error(e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+
+    private void error(String message) {
+        response.append("ERR\t").append(message.replace('\n', ' ').replace('\t', ' ')).append('\n');
+    }
+
+    private static String argument(String[] fields, int index, String fallback) {
+        return fields.length > index && !fields[index].isEmpty() ? fields[index] : fallback;
+    }
+
+    private static String required(String[] fields, int index) {
+        String value = argument(fields, index, null);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing argument " + index + " for " + fields[0]);
+        }
+        return value;
+    }
+
+    private void appendProduct(Product product) {
+        IdGenerator.appendTo(body, product.getProductNumber());
+        body.append('\t').append(product.getProductName())
+                .append('\t').append(product.getProductPrice())
+                .append('\t').append(product.getProductStock())
+                .append('\n');
+    }
+
+    private void appendOrder(Order order) {
+        IdGenerator.appendTo(body, order.getOrderNumber());
+        body.append('\t').append(order.getOrderDate())
+                .append('\t').append(order.getProductName())
+                .append('\t').append(order.getQuantity())
+                .append('\t').append(order.getTotalAmount())
+                .append('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    // Usage: java StoreServer [port]. Serves the saved store if there is one, otherwise a default catalog.
+    // Orders are logged to ./wal; the store is saved to ./store.snapshot every five minutes (or every
+    // -Dstore.snapshot.seconds) and on shutdown.
+    // Metrics are printed every 10 seconds, or every -Dstore.metrics.dumpSeconds.
+    // Products that drop below 10 units are reported on stderr.
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        StorePersistence persistence = StorePersistence.open(Paths.get("store.snapshot"), Paths.get("wal"),
+                new CustomerRegistry(), Main1::defaultCatalog);
+        ProductStore store = persistence.getStore();
+        persistence.scheduleSnapshots(Long.getLong("store.snapshot.seconds", 300));
+        InventoryEventBus events = new InventoryEventBus(64 * 1024);
+        events.subscribe("low-stock", LowStockWatcher.printing(10), InventoryEventBus.WaitStrategy.SLEEPING);
+        store.setEventBus(events);
+        StoreMetrics.registerMBeans();
+        StoreMetrics.startDumping(Long.getLong("store.metrics.dumpSeconds", 10), System.out);
+        StoreServer server = new StoreServer(store, persistence.getCustomers(), port).start();
+        // On shutdown, stop taking requests first so the final snapshot sees no half-served order
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                persistence.close();
+            } catch (IOException e) {
+                System.err.println("Could not save the store: " + e.getMessage());
+            }
+        }, "store-shutdown"));
+        System.out.println("Store server listening on 127.0.0.1:" + server.getPort());
+    }
+}
@@ -0,0 +1,429 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// StoreSnapshot class
+// Versioned binary image of the catalog, the customers and their order histories. Orders are kept in
+// an append-only orders file next to the snapshot, and each snapshot appends only the orders placed
+// since the one before, so writing one costs the catalog, the customers and the new orders rather
+// than every history again. Both files are read through a fixed window, so their size is not
+// limited by a single mapping.
+// Snapshot layout: magic, version, log checkpoint, orders generation, orders length, then a customer
+// section and a product section, each prefixed by its count.
+//   log checkpoint: first write-ahead log segment the snapshot does not cover, 0 if written without a log
+//   orders generation: the orders file is <snapshot>.orders-<generation>
+//   orders length: bytes of the orders file the snapshot covers; anything after them was appended by
+//                  a snapshot that never finished, and the next one overwrites it
+//   customer: id, credit (minor units), name, password, email, order count
+//   product:  id, price (minor units), stock, name
+// The orders file is a run of OrderRecords, each customer's in the order they were placed. A snapshot
+// that cannot continue the previous orders file starts the next generation with every order, and
+// deletes the old file once it is in place.
+// Strings are an unsigned short byte length followed by UTF-8 bytes.
+class StoreSnapshot {
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 4;
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The counters a snapshot saves, copied while orders are paused so that stock, credit, order
+    // histories and the log checkpoint agree. Names, prices and placed orders never change in place, so
+    // the rest is read afterwards while orders flow again.
+    private static final class Cut {
+        final List<Product> products;
+        final double[] stock;
+        final Customer[] customers;
+        final long[] balances;
+        final long[] orderCounts;
+        final long logCheckpoint;
+
+        Cut(ProductStore store, Collection<Customer> customers, WriteAheadLog log) {
+            this.products = store.getCatalog().getProducts();
+            this.stock = new double[products.size()];
+            for (int i = 0; i < stock.length; i++) {
+                // Reservations do not survive a restart, so units they hold are saved as stock.
+                Product product = products.get(i);
+                stock[i] = product.getProductStock() + product.getReservedStock();
+            }
+            this.customers = customers.toArray(new Customer[0]);
+            this.balances = new long[this.customers.length];
+            this.orderCounts = new long[this.customers.length];
+            for (int i = 0; i < this.customers.length; i++) {
+                balances[i] = this.customers[i].getCreditLedger().getBalance();
+                orderCounts[i] = this.customers[i].getOrderHistory().size();
+            }
+            this.logCheckpoint = log == null ? 0 : log.checkpoint();
+        }
+    }
+
+    private final ProductStore store;
+    private final List<Customer> customers;
+    private final long logCheckpoint;
+
+    private StoreSnapshot(ProductStore store, List<Customer> customers, long logCheckpoint) {
+        this.store = store;
+        this.customers = customers;
+        this.logCheckpoint = logCheckpoint;
+    }
+
+    public ProductStore getStore() {
+        return store;
+    }
+
+    public List<Customer> getCustomers() {
+        return customers;
+    }
+
+    // Replay the write-ahead log from this segment on to bring the snapshot up to date.
+    public long getLogCheckpoint() {
+        return logCheckpoint;
+    }
+
+    // Order intake pauses only while the cut copies the counters on the calling thread; the file is
+    // written on a background thread while orders keep flowing.
+    public static CompletableFuture<Path> writeAsync(ProductStore store, Collection<Customer> customers, Path file,
+            WriteAheadLog log) {
+        Cut cut = store.whileOrdersPaused(() -> new Cut(store, customers, log));
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                write(cut, file, log);
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, WRITER);
+    }
+
+    public static void write(ProductStore store, Collection<Customer> customers, Path file) throws IOException {
+        write(store, customers, file, null);
+    }
+
+    // With a log, the snapshot records a checkpoint and the log segments it covers are deleted once the
+    // file is in place.
+    public static void write(ProductStore store, Collection<Customer> customers, Path file, WriteAheadLog log)
+            throws IOException {
+        write(store.whileOrdersPaused(() -> new Cut(store, customers, log)), file, log);
+    }
+
+    // What the snapshot already at a path saved: its orders file and each customer's order count there.
+    private static final class Saved {
+        final long generation;
+        final long ordersLength;
+        final Map<Long, Long> orderCounts;
+
+        Saved(long generation, long ordersLength, Map<Long, Long> orderCounts) {
+            this.generation = generation;
+            this.ordersLength = ordersLength;
+            this.orderCounts = orderCounts;
+        }
+    }
+
+    // Reads a file a window at a time; records are decoded straight out of the window.
+    private static final class Input {
+        private final FileChannel channel;
+        private final long end;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        // File position of the first byte not yet in the window.
+        private long position;
+
+        Input(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+            buffer.flip();
+        }
+
+        // The window, holding at least the given number of unread bytes.
+        ByteBuffer need(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                buffer.compact();
+                while (buffer.position() < bytes && position < end) {
+                    buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + (end - position)));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        break;
+                    }
+                    position += read;
+                }
+                buffer.flip();
+                if (buffer.remaining() < bytes) {
+                    throw new EOFException("Snapshot ends inside a record.");
+                }
+            }
+            return buffer;
+        }
+
+        boolean hasMore() {
+            return buffer.hasRemaining() || position < end;
+        }
+
+        String getString(byte[] scratch) throws IOException {
+            ByteBuffer window = need(2);
+            need(2 + Short.toUnsignedInt(window.getShort(window.position())));
+            return OrderRecord.getString(buffer, scratch);
+        }
+
+        // Peeks at the two name lengths so the whole record is in the window before it is decoded.
+        Order getOrder(byte[] scratch) throws IOException {
+            int fixed = OrderRecord.FIXED_BYTES;
+            ByteBuffer window = need(fixed + 2);
+            int customerNameBytes = Short.toUnsignedInt(window.getShort(window.position() + fixed));
+            window = need(fixed + 4 + customerNameBytes);
+            int productNameBytes = Short.toUnsignedInt(window.getShort(window.position() + fixed + 2 + customerNameBytes));
+            return OrderRecord.get(need(fixed + 4 + customerNameBytes + productNameBytes), scratch);
+        }
+    }
+
+    static Path ordersFile(Path file, long generation) {
+        return file.resolveSibling(file.getFileName() + ".orders-" + generation);
+    }
+
+    // Appends the new orders, then writes the snapshot to a temporary file and renames it, so a crash
+    // leaves the previous snapshot and the orders it covers untouched. One writer per file at a time.
+    private static void write(Cut cut, Path file, WriteAheadLog log) throws IOException {
+        Saved saved = readSaved(file);
+        long generation = 1;
+        long ordersFrom = 0;
+        Map<Long, Long> savedCounts = Collections.emptyMap();
+        if (saved != null) {
+            generation = saved.generation;
+            if (continues(saved, cut, ordersFile(file, generation))) {
+                ordersFrom = saved.ordersLength;
+                savedCounts = saved.orderCounts;
+            } else {
+                generation++;
+            }
+        }
+        long ordersLength = appendOrders(cut, ordersFile(file, generation), ordersFrom, savedCounts);
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(cut.logCheckpoint).putLong(generation).putLong(ordersLength);
+
+            buffer.putInt(cut.customers.length);
+            for (int i = 0; i < cut.customers.length; i++) {
+                Customer customer = cut.customers[i];
+                ensureRoom(out, buffer, 24 + OrderRecord.maxStringBytes(customer.getCustomerName())
+                        + OrderRecord.maxStringBytes(customer.getCustomerPassword())
+                        + OrderRecord.maxStringBytes(customer.getEmail()));
+                buffer.putLong(customer.getCustomerId()).putLong(cut.balances[i]);
+                OrderRecord.putString(buffer, customer.getCustomerName());
+                OrderRecord.putString(buffer, customer.getCustomerPassword());
+                OrderRecord.putString(buffer, customer.getEmail());
+                buffer.putLong(cut.orderCounts[i]);
+            }
+
+            ensureRoom(out, buffer, 4);
+            buffer.putInt(cut.products.size());
+            for (int i = 0; i < cut.stock.length; i++) {
+                Product product = cut.products.get(i);
+                ensureRoom(out, buffer, 24 + OrderRecord.maxStringBytes(product.getProductName()));
+                buffer.putLong(product.getProductNumber())
+                        .putLong(product.getProductPriceMinorUnits())
+                        .putDouble(cut.stock[i]);
+                OrderRecord.putString(buffer, product.getProductName());
+            }
+            drain(out, buffer);
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (saved != null && saved.generation != generation) {
+            Files.deleteIfExists(ordersFile(file, saved.generation));
+        }
+        if (log != null) {
+            log.truncateBefore(cut.logCheckpoint);
+        }
+    }
+
+    // The previous snapshot's orders file can be continued if it still holds everything that snapshot
+    // covers and no customer now has fewer orders than it saved, which would mean a different store.
+    private static boolean continues(Saved saved, Cut cut, Path orders) throws IOException {
+        if (saved.ordersLength > 0 && (!Files.exists(orders) || Files.size(orders) < saved.ordersLength)) {
+            return false;
+        }
+        for (int i = 0; i < cut.customers.length; i++) {
+            if (saved.orderCounts.getOrDefault(cut.customers[i].getCustomerId(), 0L) > cut.orderCounts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Cuts off whatever an unfinished snapshot appended, then appends each customer's orders from the
+    // count already saved up to the cut. Older orders are streamed back from the archive a block at a time.
+    private static long appendOrders(Cut cut, Path orders, long from, Map<Long, Long> savedCounts)
+            throws IOException {
+        try (FileChannel out = FileChannel.open(orders, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(from);
+            out.position(from);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            try {
+                for (int i = 0; i < cut.customers.length; i++) {
+                    Customer customer = cut.customers[i];
+                    long first = savedCounts.getOrDefault(customer.getCustomerId(), 0L);
+                    customer.getOrderHistory().forEach(first, cut.orderCounts[i], order -> {
+                        try {
+                            ensureRoom(out, buffer, OrderRecord.maxBytes(order));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        OrderRecord.put(buffer, order);
+                    });
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            drain(out, buffer);
+            out.force(true);
+            return out.position();
+        }
+    }
+
+    private static void ensureRoom(FileChannel out, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain(out, buffer);
+        }
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Header fields after the version: log checkpoint, orders generation, orders length.
+    private static long[] readHeader(Input input, Path file) throws IOException {
+        ByteBuffer header = input.need(32);
+        if (header.getInt() != MAGIC) {
+            throw new IOException(file + " is not a store snapshot.");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + " in " + file);
+        }
+        return new long[] {header.getLong(), header.getLong(), header.getLong()};
+    }
+
+    private static Customer readCustomer(Input input, byte[] scratch) throws IOException {
+        ByteBuffer window = input.need(16);
+        long id = window.getLong();
+        long balance = window.getLong();
+        String name = input.getString(scratch);
+        String password = input.getString(scratch);
+        String email = input.getString(scratch);
+        Customer customer = new Customer(id, name, password, 0, email);
+        customer.getCreditLedger().setBalance(balance);
+        return customer;
+    }
+
+    // Null when there is no readable snapshot to continue.
+    private static Saved readSaved(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input input = new Input(in, in.size());
+            byte[] scratch = new byte[OrderRecord.MAX_STRING_BYTES];
+            long[] header = readHeader(input, file);
+            int customerCount = input.need(4).getInt();
+            Map<Long, Long> orderCounts = new HashMap<>();
+            for (int i = 0; i < customerCount; i++) {
+                long id = readCustomer(input, scratch).getCustomerId();
+                orderCounts.put(id, input.need(8).getLong());
+            }
+            return new Saved(header[1], header[2], orderCounts);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static StoreSnapshot load(Path file) throws IOException {
+        return load(file, null);
+    }
+
+    // Decodes the snapshot a window at a time, then streams the orders it covers into the customers'
+    // histories. With an archive, each history is attached to it before its orders arrive, so older
+    // orders spill as they load instead of all being held in memory first.
+    public static StoreSnapshot load(Path file, OrderArchive archive) throws IOException {
+        byte[] scratch = new byte[OrderRecord.MAX_STRING_BYTES];
+        long[] header;
+        List<Customer> customers;
+        long[] orderCounts;
+        ProductStore store;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input input = new Input(in, in.size());
+            header = readHeader(input, file);
+
+            int customerCount = input.need(4).getInt();
+            customers = new ArrayList<>(customerCount);
+            orderCounts = new long[customerCount];
+            for (int i = 0; i < customerCount; i++) {
+                Customer customer = readCustomer(input, scratch);
+                if (archive != null) {
+                    customer.getOrderHistory().attach(archive);
+                }
+                customers.add(customer);
+                orderCounts[i] = input.need(8).getLong();
+            }
+
+            int productCount = input.need(4).getInt();
+            List<Product> products = new ArrayList<>(productCount);
+            for (int i = 0; i < productCount; i++) {
+                ByteBuffer window = input.need(24);
+                long id = window.getLong();
+                long priceMinorUnits = window.getLong();
+                double stock = window.getDouble();
+                String name = input.getString(scratch);
+                products.add(new Product(id, name, CreditLedger.toAmount(priceMinorUnits), stock));
+            }
+            store = new ProductStore(products);
+        }
+        loadOrders(ordersFile(file, header[1]), header[2], customers, orderCounts, scratch);
+        return new StoreSnapshot(store, customers, header[0]);
+    }
+
+    private static void loadOrders(Path orders, long length, List<Customer> customers, long[] orderCounts,
+            byte[] scratch) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        Map<Long, Customer> byId = new HashMap<>();
+        for (Customer customer : customers) {
+            byId.put(customer.getCustomerId(), customer);
+        }
+        try (FileChannel in = FileChannel.open(orders, StandardOpenOption.READ)) {
+            if (in.size() < length) {
+                throw new IOException(orders + " is shorter than its snapshot.");
+            }
+            Input input = new Input(in, length);
+            while (input.hasMore()) {
+                Order order = input.getOrder(scratch);
+                Customer customer = byId.get(order.getCustomerId());
+                if (customer == null) {
+                    throw new IOException(orders + " holds an order of unknown customer " + order.getCustomerId());
+                }
+                customer.addOrder(order);
+            }
+        }
+        for (int i = 0; i < orderCounts.length; i++) {
+            if (customers.get(i).getOrderHistory().size() != orderCounts[i]) {
+                throw new IOException(orders + " does not match its snapshot.");
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// TimingWheel class
+// Hierarchical timing wheel that expires scheduled items in bulk. Level 0 is a ring of buckets, one per
+// tick; each level above has buckets as wide as a whole revolution of the level below. An item goes into
+// the finest level whose current revolution still covers its deadline. When a coarse bucket comes due,
+// its items are cascaded into the finer levels, so a long timeout is touched once per level rather than
+// once per revolution. Scheduling and cancelling are O(1) from any thread. A single ticker thread moves
+// newly scheduled items into their buckets and, on each tick, empties only the buckets that are due.
+// Nothing ever scans all timeouts.
+class TimingWheel<T> implements AutoCloseable {
+    // Handle for one scheduled item. Cancelling only marks it; the ticker drops it when its bucket comes up.
+    static final class Timeout<T> {
+        final T item;
+        final long deadlineMillis;
+        private volatile boolean cancelled;
+
+        Timeout(T item, long deadlineMillis) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final int wheelBits;
+    // buckets[level][slot]
+    private final ArrayDeque<Timeout<T>>[][] buckets;
+    private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+    private final Consumer<T> onExpire;
+    private final long startMillis;
+    private final ScheduledExecutorService ticker;
+    private long processedTick = -1;
+
+    // Four levels of wheelSize buckets; with 64 buckets of 100 ms that spans about 19 days before the top
+    // level has to be revisited.
+    TimingWheel(String name, long tickMillis, int wheelSize, Consumer<T> onExpire) {
+        this(name, tickMillis, wheelSize, 4, onExpire);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(String name, long tickMillis, int wheelSize, int levels, Consumer<T> onExpire) {
+        if (Integer.bitCount(wheelSize) != 1 || wheelSize < 2) {
+            throw new IllegalArgumentException("Wheel size must be a power of two.");
+        }
+        this.wheelBits = Integer.numberOfTrailingZeros(wheelSize);
+        if (levels < 1 || (long) levels * wheelBits > 62) {
+            throw new IllegalArgumentException("Levels must be between 1 and " + 62 / wheelBits + ".");
+        }
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayDeque[levels][wheelSize];
+        for (ArrayDeque<Timeout<T>>[] level : buckets) {
+            for (int i = 0; i < wheelSize; i++) {
+                level[i] = new ArrayDeque<>();
+            }
+        }
+        this.onExpire = onExpire;
+        this.startMillis = now();
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Monotonic milliseconds; deadlines handed to the wheel are on this clock.
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public Timeout<T> schedule(T item, long delayMillis) {
+        Timeout<T> timeout = new Timeout<>(item, now() + Math.max(0, delayMillis));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void tick() {
+        try {
+            long currentTick = (now() - startMillis) / tickMillis;
+            Timeout<T> timeout;
+            while ((timeout = pending.poll()) != null) {
+                place(timeout);
+            }
+            while (processedTick < currentTick) {
+                long tick = processedTick + 1;
+                // Coarsest first, so items cascaded from level 2 to level 1 are cascaded again this tick
+                // if their level-1 bucket is the one coming due.
+                for (int level = buckets.length - 1; level > 0; level--) {
+                    if ((tick & ((1L << (wheelBits * level)) - 1)) == 0) {
+                        cascade(bucket(level, tick));
+                    }
+                }
+                processedTick = tick;
+                expireBucket(bucket(0, tick));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Timing wheel tick failed: " + e.getMessage());
+        }
+    }
+
+    private ArrayDeque<Timeout<T>> bucket(int level, long tick) {
+        return buckets[level][(int) ((tick >>> (wheelBits * level)) & (buckets[level].length - 1))];
+    }
+
+    // Items already due go into the next bucket to be processed. Otherwise the item goes into the lowest
+    // level where its tick and the next tick share the same bucket one level up, so its bucket is still
+    // ahead in the current revolution. Items beyond the top level's span wait there and are placed again
+    // each time their bucket is cascaded.
+    private void place(Timeout<T> timeout) {
+        long deadlineTick = (timeout.deadlineMillis - startMillis + tickMillis - 1) / tickMillis;
+        long next = processedTick + 1;
+        long tick = Math.max(deadlineTick, next);
+        int level = 0;
+        while (level < buckets.length - 1 && (tick >>> (wheelBits * (level + 1))) != (next >>> (wheelBits * (level + 1)))) {
+            level++;
+        }
+        bucket(level, tick).add(timeout);
+    }
+
+    // Only the items present when the cascade starts are moved; an item placed back into the same
+    // bucket waits for that bucket's next turn.
+    private void cascade(ArrayDeque<Timeout<T>> bucket) {
+        int count = bucket.size();
+        for (int i = 0; i < count; i++) {
+            Timeout<T> timeout = bucket.poll();
+            if (!timeout.isCancelled()) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void expireBucket(ArrayDeque<Timeout<T>> bucket) {
+        long nowMillis = now();
+        int count = bucket.size();
+        for (int i = 0; i < count; i++) {
+            Timeout<T> timeout = bucket.poll();
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout.deadlineMillis > nowMillis) {
+                place(timeout);
+                continue;
+            }
+            try {
+                onExpire.accept(timeout.item);
+            } catch (RuntimeException e) {
+                System.err.println("Timing wheel expiry failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// WorkloadDriver class
+// Replays a command script against a ProductStore and a CustomerRegistry without the menu, for load
+// tests. Arrivals are open-loop: command i is due at start + i / rate whether or not earlier commands
+// have finished. Latency is measured from that due time, so a stalled store shows up as queueing delay
+// instead of quietly slowing the offered load. Each simulated user runs their own commands in script
+// order; different users run concurrently on the worker pool.
+//
+// Script format: one command per line, tab-separated, '#' starts a comment.
+//   <user> register <name> <email> <password> <credit>
+//   <user> login    <email> <password>
+//   <user> search   <query>
+//   <user> purchase <product name> <quantity>
+//   <user> invoice
+// The driver's catalog holds "Product 0" .. "Product <catalog size - 1>".
+class WorkloadDriver {
+    enum Operation {
+        REGISTER, LOGIN, SEARCH, PURCHASE, INVOICE
+    }
+
+    static final class Command {
+        final String user;
+        final Operation operation;
+        final String[] arguments;
+
+        Command(String user, Operation operation, String[] arguments) {
+            this.user = user;
+            this.operation = operation;
+            this.arguments = arguments;
+        }
+    }
+
+    // Commands of one simulated user are chained, so they run one after another in script order.
+    private static final class User {
+        Customer customer;
+        CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+    }
+
+    private static final ThreadLocal<StoreRenderer> INVOICES =
+            ThreadLocal.withInitial(() -> new StoreRenderer(Writer.nullWriter()));
+
+    private final ProductStore store;
+    private final CustomerRegistry customers;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> rejections = new EnumMap<>(Operation.class);
+
+    WorkloadDriver(ProductStore store, CustomerRegistry customers) {
+        this.store = store;
+        this.customers = customers;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            rejections.put(operation, new AtomicLong());
+        }
+    }
+
+    static List<Command> readScript(Path file) throws IOException {
+        List<Command> commands = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length < 2) {
+                throw new IOException(file + ":" + lineNumber + ": expected <user> <operation> [arguments]");
+            }
+            Operation operation;
+            try {
+                operation = Operation.valueOf(fields[1].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + ":" + lineNumber + ": unknown operation " + fields[1]);
+            }
+            commands.add(new Command(fields[0], operation, Arrays.copyOfRange(fields, 2, fields.length)));
+        }
+        return commands;
+    }
+
+    // Each user registers and logs in, then issues a random mix of searches, purchases and invoice
+    // views. Users are interleaved so they are all active for the whole run.
+    static void generateScript(Path file, int users, int commandsPerUser, int catalogSize, long seed)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] issued = new int[users];
+        List<Integer> active = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            active.add(i);
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# user\toperation\targuments");
+            out.newLine();
+            while (!active.isEmpty()) {
+                int slot = random.nextInt(active.size());
+                int user = active.get(slot);
+                String name = "user" + user;
+                String email = name + "@example.com";
+                String command;
+                if (issued[user] == 0) {
+                    command = "register\t" + name + "\t" + email + "\tsecret\t1000000";
+                } else if (issued[user] == 1) {
+                    command = "login\t" + email + "\tsecret";
+                } else {
+                    int pick = random.nextInt(100);
+                    String product = "Product " + random.nextInt(catalogSize);
+                    if (pick < 50) {
+                        command = "search\t" + product.substring(0, 3 + random.nextInt(product.length() - 2));
+                    } else if (pick < 85) {
+                        command = "purchase\t" + product + "\t" + (1 + random.nextInt(3));
+                    } else {
+                        command = "invoice";
+                    }
+                }
+                out.write(name + "\t" + command);
+                out.newLine();
+                if (++issued[user] == commandsPerUser) {
+                    active.set(slot, active.get(active.size() - 1));
+                    active.remove(active.size() - 1);
+                }
+            }
+        }
+    }
+
+    // Runs the script at the given arrival rate (commands per second) on a pool of worker threads and
+    // returns the wall-clock run time in nanoseconds.
+    public long run(List<Command> commands, double ratePerSecond, int threads) {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "workload-user");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, User> users = new HashMap<>();
+        double intervalNanos = 1e9 / ratePerSecond;
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                Command command = commands.get(i);
+                long due = start + (long) (i * intervalNanos);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                User user = users.computeIfAbsent(command.user, name -> new User());
+                user.tail = user.tail.thenRunAsync(() -> execute(user, command, due), workers);
+            }
+            for (User user : users.values()) {
+                user.tail.join();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private void execute(User user, Command command, long due) {
+        boolean accepted;
+        try {
+            accepted = apply(user, command);
+        } catch (RuntimeException e) {
+            accepted = false;
+        }
+        latencies.get(command.operation).record(System.nanoTime() - due);
+        if (!accepted) {
+            rejections.get(command.operation).incrementAndGet();
+        }
+    }
+
+    private boolean apply(User user, Command command) {
+        String[] arguments = command.arguments;
+        switch (command.operation) {
+            case REGISTER:
+                Customer customer = new Customer(IdGenerator.nextId(), arguments[0], arguments[2],
+                        Double.parseDouble(arguments[3]), arguments[1]);
+                return customers.register(customer) == CustomerRegistry.Registration.REGISTERED;
+            case LOGIN:
+                user.customer = customers.loginByEmail(arguments[0], arguments[1]);
+                return user.customer != null;
+            case SEARCH:
+                return !store.searchProducts(arguments[0], 10).isEmpty();
+            case PURCHASE:
+                return user.customer != null
+                        && store.tryPlaceOrder(user.customer, arguments[0], Double.parseDouble(arguments[1])).isAccepted();
+            case INVOICE:
+                if (user.customer == null) {
+                    return false;
+                }
+                StoreRenderer renderer = INVOICES.get();
+                for (Order order : user.customer.getOrderHistory().page(null, 20).getOrders()) {
+                    renderer.invoice(order);
+                }
+                renderer.flush();
+                return true;
+            default:
+                throw new IllegalStateException("Unhandled operation " + command.operation);
+        }
+    }
+
+    public String report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-9s %10s %9s %10s %10s %10s %10s %10s%n", "operation", "count", "rejected",
+                "ops/s", "p50 us", "p99 us", "p999 us", "max us"));
+        LatencyHistogram all = new LatencyHistogram();
+        long rejected = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            all.add(histogram);
+            rejected += rejections.get(operation).get();
+            appendRow(text, operation.name().toLowerCase(Locale.ROOT), histogram, rejections.get(operation).get(), seconds);
+        }
+        appendRow(text, "all", all, rejected, seconds);
+        return text.toString();
+    }
+
+    private static void appendRow(StringBuilder text, String name, LatencyHistogram histogram, long rejected,
+            double seconds) {
+        text.append(String.format("%-9s %10d %9d %10.0f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getCount(),
+                rejected, histogram.getCount() / seconds, histogram.valueAtPercentile(50) / 1e3,
+                histogram.valueAtPercentile(99) / 1e3, histogram.valueAtPercentile(99.9) / 1e3,
+                histogram.getMax() / 1e3));
+    }
+
+    // Usage:
+    //   java WorkloadDriver generate <script> [users] [commands per user] [catalog size]
+    //   java WorkloadDriver run <script> [commands per second] [threads] [catalog size]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: WorkloadDriver generate|run <script> ...");
+            return;
+        }
+        Path script = Paths.get(args[1]);
+        if (args[0].equals("generate")) {
+            int users = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            int commandsPerUser = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+            int catalogSize = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+            generateScript(script, users, commandsPerUser, catalogSize, 42);
+            System.out.println("Wrote " + users * commandsPerUser + " commands to " + script);
+            return;
+        }
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 10000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors() * 4;
+        int catalogSize = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+        List<Command> commands = readScript(script);
+        List<Product> products = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            products.add(new Product(IdGenerator.nextId(), "Product " + i, 10 + i % 990, 1_000_000));
+        }
+        WorkloadDriver driver = new WorkloadDriver(new ProductStore(products), new CustomerRegistry());
+        System.out.printf("Replaying %d commands at %.0f/s on %d threads%n", commands.size(), rate, threads);
+        long elapsed = driver.run(commands, rate, threads);
+        System.out.printf("Finished in %.2f s%n", elapsed / 1e9);
+        System.out.print(driver.report(elapsed));
+        System.out.println("Store-side timings:");
+        System.out.print(StoreMetrics.dump());
+    }
+}
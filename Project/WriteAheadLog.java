@@ -0,0 +1,783 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// WriteAheadLog class
+// Durable record of every change a snapshot saves: stock decrements, credit debits, orders, customer
+// registrations and changes, and catalog additions and changes. Records are written into memory-mapped
+// segment files, so an append is a memory copy: it survives a process crash as soon as it returns and
+// a machine crash once the background flusher has forced the segment (group commit, see awaitDurable).
+//
+// Segment layout: magic, reserved int, base sequence (long), then entries of
+// [int body length][int CRC32 of body][body], where a body holds one or more records. An order record is
+// a type byte and an OrderRecord, so replay rebuilds orders with their purchase-time names and prices.
+// One entry is the unit of atomicity: an order's stock, credit and order records land together or not at all.
+// Customer and catalog records are logged before the change becomes visible, so in the log they always
+// come before any order that depends on them, and replay in log order rebuilds the same ids.
+//
+// A snapshot cut calls checkpoint() to start a new segment: the snapshot covers every older segment, so
+// startup replays only from the checkpoint on, and once the snapshot is safely on disk truncateBefore
+// deletes what it covers.
+class WriteAheadLog implements AutoCloseable {
+    static final byte STOCK_DECREMENT = 1;
+    static final byte CREDIT_DEBIT = 2;
+    static final byte ORDER_CREATED = 3;
+    static final byte CUSTOMER_REGISTERED = 4;
+    static final byte CUSTOMER_CHANGED = 5;
+    static final byte PRODUCT_ADDED = 6;
+    static final byte PRODUCT_CHANGED = 7;
+
+    private static final int STOCK_RECORD_BYTES = 1 + 8 + 8;
+    private static final int CREDIT_RECORD_BYTES = 1 + 8 + 8;
+    private static final int MAGIC = 0x57414C31;
+    private static final int SEGMENT_HEADER_BYTES = 16;
+    private static final int ENTRY_HEADER_BYTES = 8;
+    private static final int COMPACTED_ENTRY_BYTES = 64 * 1024;
+
+    // Receives records during replay. Stock and credit amounts are signed: a negative value is a return.
+    // A registered customer comes with the balance it had when it registered; product records carry the
+    // product as it was after the change.
+    interface Handler {
+        void stockDecrement(long productId, double quantity);
+
+        void creditDebit(long customerId, long minorUnits);
+
+        void orderCreated(Order order);
+
+        void customerRegistered(Customer customer);
+
+        void customerChanged(long customerId, String name, String password);
+
+        void productAdded(Product product);
+
+        void productChanged(long productId, String name, long priceMinorUnits);
+
+        // Called after the last record of each entry, so a handler can apply a batch of changes at once.
+        default void endOfEntry() {
+        }
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+    private final Object durableLock = new Object();
+    // Held by compact and truncateBefore so they never work on the same segments at once.
+    private final Object maintenanceLock = new Object();
+    private long activeSeq;
+    // First segment after the latest checkpoint; compaction never folds older segments into it.
+    private long checkpointSeq;
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+    private long appendedPosition;
+    private long durablePosition;
+    private boolean closed;
+
+    WriteAheadLog(Path directory) throws IOException {
+        this(directory, 1);
+    }
+
+    // Pass the checkpoint of the snapshot being restored, so appends never land in a segment that a
+    // later replay from that checkpoint would skip, even if the directory was emptied.
+    WriteAheadLog(Path directory, long firstSeq) throws IOException {
+        this(directory, firstSeq, 64 * 1024 * 1024, 2);
+    }
+
+    // Existing segments are kept for replay; appends always go to a fresh segment.
+    WriteAheadLog(Path directory, long firstSeq, int segmentBytes, long flushIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        List<Long> live = liveSegments();
+        long lastSeq = live.isEmpty() ? 0 : live.get(live.size() - 1);
+        openSegment(Math.max(firstSeq, lastSeq + 1));
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private Path segmentPath(long seq) {
+        return directory.resolve(String.format("wal-%016d.log", seq));
+    }
+
+    private static long segmentSeq(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+
+    private List<Long> segmentSeqs() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                seqs.add(segmentSeq(file));
+            }
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+
+    private static long readBaseSeq(Path path, long seq) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+            channel.read(header, 0);
+            return header.getInt(0) == MAGIC ? header.getLong(8) : seq;
+        }
+    }
+
+    // A compacted segment covers every sequence from its base up to its own number. Segments it
+    // covers are left behind only if a crash interrupted compaction; they are removed here.
+    private List<Long> liveSegments() throws IOException {
+        List<Long> seqs = segmentSeqs();
+        Set<Long> superseded = new HashSet<>();
+        for (long seq : seqs) {
+            long base = readBaseSeq(segmentPath(seq), seq);
+            for (long covered : seqs) {
+                if (covered >= base && covered < seq) {
+                    superseded.add(covered);
+                }
+            }
+        }
+        List<Long> live = new ArrayList<>();
+        for (long seq : seqs) {
+            if (superseded.contains(seq)) {
+                Files.deleteIfExists(segmentPath(seq));
+            } else {
+                live.add(seq);
+            }
+        }
+        return live;
+    }
+
+    private void openSegment(long seq) throws IOException {
+        activeSeq = seq;
+        activeChannel = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        active.putInt(MAGIC).putInt(0).putLong(seq);
+    }
+
+    // Seals the active segment and starts appending to a new one.
+    public synchronized void rotate() {
+        try {
+            active.force();
+            activeChannel.close();
+            markDurable(appendedPosition);
+            openSegment(activeSeq + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Seals the active segment and returns the sequence of the new one. Everything appended before the
+    // call is in older segments, so a snapshot that reflects exactly those appends covers them; the
+    // caller must keep new appends out until it has copied the state the snapshot saves.
+    public synchronized long checkpoint() {
+        rotate();
+        checkpointSeq = activeSeq;
+        return activeSeq;
+    }
+
+    // Deletes the segments older than the given checkpoint, once a snapshot covering them is on disk.
+    public void truncateBefore(long seq) throws IOException {
+        synchronized (maintenanceLock) {
+            for (long live : segmentSeqs()) {
+                if (live < seq) {
+                    Files.deleteIfExists(segmentPath(live));
+                }
+            }
+        }
+    }
+
+    // Leaves room for the entry header and returns where the entry starts; callers hold the monitor.
+    private int begin(int bodyBytes) {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed.");
+        }
+        if (ENTRY_HEADER_BYTES + bodyBytes > segmentBytes - SEGMENT_HEADER_BYTES) {
+            throw new IllegalArgumentException("Log entry of " + bodyBytes + " bytes does not fit in a segment.");
+        }
+        if (active.position() + ENTRY_HEADER_BYTES + bodyBytes > active.limit()) {
+            rotate();
+        }
+        int start = active.position();
+        active.position(start + ENTRY_HEADER_BYTES);
+        return start;
+    }
+
+    // The length is written last, so a torn entry reads as either the end of the log or a CRC mismatch.
+    private long commit(int start) {
+        int end = active.position();
+        ByteBuffer body = active.duplicate();
+        body.position(start + ENTRY_HEADER_BYTES).limit(end);
+        crc.reset();
+        crc.update(body);
+        active.putInt(start + 4, (int) crc.getValue());
+        active.putInt(start, end - start - ENTRY_HEADER_BYTES);
+        appendedPosition += end - start;
+        return appendedPosition;
+    }
+
+    private static void putStockDecrement(ByteBuffer buffer, long productId, double quantity) {
+        buffer.put(STOCK_DECREMENT).putLong(productId).putDouble(quantity);
+    }
+
+    private static void putCreditDebit(ByteBuffer buffer, long customerId, long minorUnits) {
+        buffer.put(CREDIT_DEBIT).putLong(customerId).putLong(minorUnits);
+    }
+
+    private static int orderCreatedBytes(Order order) {
+        return 1 + OrderRecord.maxBytes(order);
+    }
+
+    private static void putOrderCreated(ByteBuffer buffer, Order order) {
+        buffer.put(ORDER_CREATED);
+        OrderRecord.put(buffer, order);
+    }
+
+    private static int customerRegisteredBytes(Customer customer) {
+        return 1 + 16 + OrderRecord.maxStringBytes(customer.getCustomerName())
+                + OrderRecord.maxStringBytes(customer.getCustomerPassword())
+                + OrderRecord.maxStringBytes(customer.getEmail());
+    }
+
+    private static void putCustomerRegistered(ByteBuffer buffer, Customer customer) {
+        buffer.put(CUSTOMER_REGISTERED).putLong(customer.getCustomerId())
+                .putLong(customer.getCreditLedger().getBalance());
+        OrderRecord.putString(buffer, customer.getCustomerName());
+        OrderRecord.putString(buffer, customer.getCustomerPassword());
+        OrderRecord.putString(buffer, customer.getEmail());
+    }
+
+    private static int customerChangedBytes(String name, String password) {
+        return 1 + 8 + OrderRecord.maxStringBytes(name) + OrderRecord.maxStringBytes(password);
+    }
+
+    private static void putCustomerChanged(ByteBuffer buffer, long customerId, String name, String password) {
+        buffer.put(CUSTOMER_CHANGED).putLong(customerId);
+        OrderRecord.putString(buffer, name);
+        OrderRecord.putString(buffer, password);
+    }
+
+    private static int productRecordBytes(Product product) {
+        return 1 + 24 + OrderRecord.maxStringBytes(product.getProductName());
+    }
+
+    private static void putProductAdded(ByteBuffer buffer, Product product) {
+        buffer.put(PRODUCT_ADDED).putLong(product.getProductNumber())
+                .putLong(product.getProductPriceMinorUnits())
+                .putDouble(product.getProductStock());
+        OrderRecord.putString(buffer, product.getProductName());
+    }
+
+    private static void putProductChanged(ByteBuffer buffer, Product product) {
+        buffer.put(PRODUCT_CHANGED).putLong(product.getProductNumber())
+                .putLong(product.getProductPriceMinorUnits());
+        OrderRecord.putString(buffer, product.getProductName());
+    }
+
+    // Each append returns the log position just past its entry, for use with awaitDurable.
+    public synchronized long logOrder(Order order) {
+        int start = begin(STOCK_RECORD_BYTES + CREDIT_RECORD_BYTES + orderCreatedBytes(order));
+        putStockDecrement(active, order.getProductId(), order.getQuantity());
+        putCreditDebit(active, order.getCustomerId(), order.getTotalMinorUnits());
+        putOrderCreated(active, order);
+        return commit(start);
+    }
+
+    // A cart checkout: one credit debit for the whole cart plus a stock and order record per line.
+    public synchronized long logOrders(List<Order> orders) {
+        int bodyBytes = CREDIT_RECORD_BYTES;
+        long totalMinorUnits = 0;
+        for (Order order : orders) {
+            bodyBytes += STOCK_RECORD_BYTES + orderCreatedBytes(order);
+            totalMinorUnits += order.getTotalMinorUnits();
+        }
+        int start = begin(bodyBytes);
+        putCreditDebit(active, orders.get(0).getCustomerId(), totalMinorUnits);
+        for (Order order : orders) {
+            putStockDecrement(active, order.getProductId(), order.getQuantity());
+            putOrderCreated(active, order);
+        }
+        return commit(start);
+    }
+
+    // Logs the customer as it is now, before it is registered anywhere.
+    public synchronized long logCustomerRegistered(Customer customer) {
+        int start = begin(customerRegisteredBytes(customer));
+        putCustomerRegistered(active, customer);
+        return commit(start);
+    }
+
+    // A rename or password change: the customer's name and password after it.
+    public synchronized long logCustomerChanged(long customerId, String name, String password) {
+        int start = begin(customerChangedBytes(name, password));
+        putCustomerChanged(active, customerId, name, password);
+        return commit(start);
+    }
+
+    // One catalog batch: the products it added and the ones it renamed or repriced, as they are in the
+    // new version. The batch is one entry if it fits in a segment; a larger one is split over several,
+    // and a crash can then leave only its first part in the log.
+    public synchronized long logCatalogChanges(List<Product> added, Collection<Product> changed) {
+        List<Product> products = new ArrayList<>(added.size() + changed.size());
+        products.addAll(added);
+        products.addAll(changed);
+        int limit = segmentBytes - SEGMENT_HEADER_BYTES - ENTRY_HEADER_BYTES;
+        long position = appendedPosition;
+        int from = 0;
+        while (from < products.size()) {
+            int bodyBytes = productRecordBytes(products.get(from));
+            int to = from + 1;
+            while (to < products.size() && bodyBytes + productRecordBytes(products.get(to)) <= limit) {
+                bodyBytes += productRecordBytes(products.get(to));
+                to++;
+            }
+            int start = begin(bodyBytes);
+            for (int i = from; i < to; i++) {
+                if (i < added.size()) {
+                    putProductAdded(active, products.get(i));
+                } else {
+                    putProductChanged(active, products.get(i));
+                }
+            }
+            position = commit(start);
+            from = to;
+        }
+        return position;
+    }
+
+    public synchronized long logStockDecrement(long productId, double quantity) {
+        int start = begin(STOCK_RECORD_BYTES);
+        putStockDecrement(active, productId, quantity);
+        return commit(start);
+    }
+
+    public synchronized long logCreditDebit(long customerId, long minorUnits) {
+        int start = begin(CREDIT_RECORD_BYTES);
+        putCreditDebit(active, customerId, minorUnits);
+        return commit(start);
+    }
+
+    // Forces everything appended so far; called by the flusher so many appends share one force.
+    public void flush() {
+        MappedByteBuffer segment;
+        long target;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            segment = active;
+            target = appendedPosition;
+        }
+        if (target > durablePosition()) {
+            segment.force();
+            markDurable(target);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Write-ahead log flush failed: " + e.getMessage());
+        }
+    }
+
+    private long durablePosition() {
+        synchronized (durableLock) {
+            return durablePosition;
+        }
+    }
+
+    private void markDurable(long position) {
+        synchronized (durableLock) {
+            if (position > durablePosition) {
+                durablePosition = position;
+                durableLock.notifyAll();
+            }
+        }
+    }
+
+    // Blocks until the entry ending at the given position has been forced to disk.
+    public void awaitDurable(long position) throws InterruptedException {
+        synchronized (durableLock) {
+            while (durablePosition < position) {
+                durableLock.wait();
+            }
+        }
+    }
+
+    // Replays every valid entry of every segment, oldest first. Reading a segment stops at its first
+    // empty or damaged entry, which is where a crash interrupted the writer.
+    public void replay(Handler handler) throws IOException {
+        replay(handler, 0);
+    }
+
+    // Replays only the segments from the given checkpoint on, i.e. what a snapshot taken there lacks.
+    public void replay(Handler handler, long fromSeq) throws IOException {
+        for (long seq : liveSegments()) {
+            if (seq >= fromSeq) {
+                replaySegment(segmentPath(seq), handler);
+            }
+        }
+    }
+
+    private static void replaySegment(Path path, Handler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (segment.limit() < SEGMENT_HEADER_BYTES || segment.getInt(0) != MAGIC) {
+                return;
+            }
+            CRC32 checksum = new CRC32();
+            byte[] scratch = new byte[OrderRecord.MAX_STRING_BYTES];
+            int position = SEGMENT_HEADER_BYTES;
+            while (position + ENTRY_HEADER_BYTES <= segment.limit()) {
+                int length = segment.getInt(position);
+                int bodyStart = position + ENTRY_HEADER_BYTES;
+                if (length <= 0 || bodyStart + length > segment.limit()) {
+                    return;
+                }
+                ByteBuffer body = segment.duplicate();
+                body.position(bodyStart).limit(bodyStart + length);
+                checksum.reset();
+                checksum.update(body);
+                if ((int) checksum.getValue() != segment.getInt(position + 4)) {
+                    return;
+                }
+                body.position(bodyStart);
+                readRecords(body, handler, scratch);
+                handler.endOfEntry();
+                position = bodyStart + length;
+            }
+        }
+    }
+
+    private static void readRecords(ByteBuffer body, Handler handler, byte[] scratch) {
+        while (body.hasRemaining()) {
+            byte type = body.get();
+            switch (type) {
+                case STOCK_DECREMENT:
+                    handler.stockDecrement(body.getLong(), body.getDouble());
+                    break;
+                case CREDIT_DEBIT:
+                    handler.creditDebit(body.getLong(), body.getLong());
+                    break;
+                case ORDER_CREATED:
+                    handler.orderCreated(OrderRecord.get(body, scratch));
+                    break;
+                case CUSTOMER_REGISTERED: {
+                    long customerId = body.getLong();
+                    long balance = body.getLong();
+                    String name = OrderRecord.getString(body, scratch);
+                    String password = OrderRecord.getString(body, scratch);
+                    String email = OrderRecord.getString(body, scratch);
+                    Customer customer = new Customer(customerId, name, password, 0, email);
+                    customer.getCreditLedger().setBalance(balance);
+                    handler.customerRegistered(customer);
+                    break;
+                }
+                case CUSTOMER_CHANGED:
+                    handler.customerChanged(body.getLong(), OrderRecord.getString(body, scratch),
+                            OrderRecord.getString(body, scratch));
+                    break;
+                case PRODUCT_ADDED: {
+                    long productId = body.getLong();
+                    long priceMinorUnits = body.getLong();
+                    double stock = body.getDouble();
+                    String name = OrderRecord.getString(body, scratch);
+                    handler.productAdded(new Product(productId, name, CreditLedger.toAmount(priceMinorUnits), stock));
+                    break;
+                }
+                case PRODUCT_CHANGED: {
+                    long productId = body.getLong();
+                    long priceMinorUnits = body.getLong();
+                    handler.productChanged(productId, OrderRecord.getString(body, scratch), priceMinorUnits);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown write-ahead log record type " + type);
+            }
+        }
+    }
+
+    // Folds the sealed segments since the last checkpoint into one: customer and catalog records are
+    // kept in order ahead of everything else, stock and credit changes are summed per product and
+    // customer, and order records are kept as they are. Segments before the
+    // checkpoint are left for truncateBefore. Appends continue into the new active segment.
+    public void compact() throws IOException {
+        synchronized (maintenanceLock) {
+            compactSealed();
+        }
+    }
+
+    private void compactSealed() throws IOException {
+        long firstActive;
+        long firstCovered;
+        synchronized (this) {
+            rotate();
+            firstActive = activeSeq;
+            firstCovered = checkpointSeq;
+        }
+        List<Long> sealed = new ArrayList<>();
+        for (long seq : liveSegments()) {
+            if (seq >= firstCovered && seq < firstActive) {
+                sealed.add(seq);
+            }
+        }
+        if (sealed.isEmpty()) {
+            return;
+        }
+        Map<Long, Double> stock = new LinkedHashMap<>();
+        Map<Long, Long> credit = new LinkedHashMap<>();
+        ByteBuffer records = ByteBuffer.allocate(COMPACTED_ENTRY_BYTES);
+        long baseSeq = sealed.get(0);
+        long lastSeq = sealed.get(sealed.size() - 1);
+        Path compacted = directory.resolve(String.format("wal-%016d.compact", lastSeq));
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+            header.putInt(MAGIC).putInt(0).putLong(baseSeq).flip();
+            writeFully(out, header);
+            // First pass: customer and catalog records, in log order. They only depend on each other, and
+            // everything in the second pass depends on them, so they all go first.
+            Handler structure = new Handler() {
+                @Override
+                public void stockDecrement(long productId, double quantity) {
+                }
+
+                @Override
+                public void creditDebit(long customerId, long minorUnits) {
+                }
+
+                @Override
+                public void orderCreated(Order order) {
+                }
+
+                @Override
+                public void customerRegistered(Customer customer) {
+                    if (records.remaining() < customerRegisteredBytes(customer)) {
+                        writeEntry(out, records);
+                    }
+                    putCustomerRegistered(records, customer);
+                }
+
+                @Override
+                public void customerChanged(long customerId, String name, String password) {
+                    if (records.remaining() < customerChangedBytes(name, password)) {
+                        writeEntry(out, records);
+                    }
+                    putCustomerChanged(records, customerId, name, password);
+                }
+
+                @Override
+                public void productAdded(Product product) {
+                    if (records.remaining() < productRecordBytes(product)) {
+                        writeEntry(out, records);
+                    }
+                    putProductAdded(records, product);
+                }
+
+                @Override
+                public void productChanged(long productId, String name, long priceMinorUnits) {
+                    Product product = new Product(productId, name, CreditLedger.toAmount(priceMinorUnits), 0);
+                    if (records.remaining() < productRecordBytes(product)) {
+                        writeEntry(out, records);
+                    }
+                    putProductChanged(records, product);
+                }
+            };
+            // Second pass: stock and credit changes summed per product and customer, orders as they are.
+            Handler fold = new Handler() {
+                @Override
+                public void stockDecrement(long productId, double quantity) {
+                    stock.merge(productId, quantity, Double::sum);
+                }
+
+                @Override
+                public void creditDebit(long customerId, long minorUnits) {
+                    credit.merge(customerId, minorUnits, Long::sum);
+                }
+
+                @Override
+                public void orderCreated(Order order) {
+                    if (records.remaining() < orderCreatedBytes(order)) {
+                        writeEntry(out, records);
+                    }
+                    putOrderCreated(records, order);
+                }
+
+                @Override
+                public void customerRegistered(Customer customer) {
+                }
+
+                @Override
+                public void customerChanged(long customerId, String name, String password) {
+                }
+
+                @Override
+                public void productAdded(Product product) {
+                }
+
+                @Override
+                public void productChanged(long productId, String name, long priceMinorUnits) {
+                }
+            };
+            for (long seq : sealed) {
+                replaySegment(segmentPath(seq), structure);
+            }
+            // Catalog records are applied at the end of their entry, so they must not share one with
+            // the stock records that follow.
+            writeEntry(out, records);
+            for (long seq : sealed) {
+                replaySegment(segmentPath(seq), fold);
+            }
+            for (Map.Entry<Long, Double> entry : stock.entrySet()) {
+                if (records.remaining() < STOCK_RECORD_BYTES) {
+                    writeEntry(out, records);
+                }
+                putStockDecrement(records, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<Long, Long> entry : credit.entrySet()) {
+                if (records.remaining() < CREDIT_RECORD_BYTES) {
+                    writeEntry(out, records);
+                }
+                putCreditDebit(records, entry.getKey(), entry.getValue());
+            }
+            writeEntry(out, records);
+            out.force(true);
+        }
+        // The compacted file replaces the newest sealed segment in one atomic rename; its base sequence
+        // marks the older ones as superseded even if deleting them below is interrupted.
+        Files.move(compacted, segmentPath(lastSeq), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (long seq : sealed) {
+            if (seq != lastSeq) {
+                Files.deleteIfExists(segmentPath(seq));
+            }
+        }
+    }
+
+    // Writes the buffered records as one entry and clears the buffer for reuse.
+    private static void writeEntry(FileChannel out, ByteBuffer records) {
+        records.flip();
+        if (records.hasRemaining()) {
+            CRC32 checksum = new CRC32();
+            checksum.update(records.duplicate());
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+            header.putInt(records.remaining()).putInt((int) checksum.getValue()).flip();
+            try {
+                writeFully(out, header);
+                writeFully(out, records);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        records.clear();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // Replay handler that re-applies logged changes to a store restored from the snapshot the log
+    // continues. Customers and products are created by their own records before anything refers to
+    // them, so a record for an unknown id can only come from a log that does not belong to the
+    // snapshot; such records are skipped. The catalog records of one entry are applied as one batch.
+    static Handler applyTo(ProductStore store, CustomerRegistry customers) {
+        return new Handler() {
+            private final List<Consumer<Catalog.Builder>> catalogChanges = new ArrayList<>();
+
+            @Override
+            public void stockDecrement(long productId, double quantity) {
+                Product product = store.findProductById(productId);
+                if (product != null) {
+                    product.setProductStock(product.getProductStock() - quantity);
+                }
+            }
+
+            @Override
+            public void creditDebit(long customerId, long minorUnits) {
+                Customer customer = customers.findById(customerId);
+                if (customer != null) {
+                    customer.getCreditLedger().credit(-minorUnits);
+                }
+            }
+
+            @Override
+            public void orderCreated(Order order) {
+                Customer customer = customers.findById(order.getCustomerId());
+                if (customer != null) {
+                    customer.addOrder(order);
+                }
+            }
+
+            @Override
+            public void customerRegistered(Customer customer) {
+                customers.register(customer);
+            }
+
+            @Override
+            public void customerChanged(long customerId, String name, String password) {
+                Customer customer = customers.findById(customerId);
+                if (customer != null) {
+                    customers.rename(customer, name);
+                    customers.changePassword(customer, password);
+                }
+            }
+
+            @Override
+            public void productAdded(Product product) {
+                catalogChanges.add(batch -> batch.add(product));
+            }
+
+            @Override
+            public void productChanged(long productId, String name, long priceMinorUnits) {
+                catalogChanges.add(batch -> {
+                    batch.rename(productId, name);
+                    batch.reprice(productId, CreditLedger.toAmount(priceMinorUnits));
+                });
+            }
+
+            @Override
+            public void endOfEntry() {
+                if (!catalogChanges.isEmpty()) {
+                    store.updateCatalog(batch -> catalogChanges.forEach(change -> change.accept(batch)));
+                    catalogChanges.clear();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            active.force();
+            markDurable(appendedPosition);
+            closed = true;
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
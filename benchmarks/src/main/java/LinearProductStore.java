@@ -0,0 +1,86 @@
+import java.util.List;
+
+// LinearProductStore class
+// Reference engine for the benchmarks: the store as it was before the name index, a List<Product> scanned
+// front to back with equalsIgnoreCase on every lookup, copied as it stood. It takes no locks, so with
+// more than one benchmark thread some stock updates are lost; the stock is large enough that no order is
+// refused either way, and the timings are what it is here for. Not part of the store.
+class LinearProductStore {
+    private List<Product> productList;
+
+    LinearProductStore(List<Product> products) {
+        this.productList = products;
+    }
+
+    public void addProduct(Product items) {
+        productList.add(items);
+    }
+
+    public void getAllProductList() {
+        if (productList.isEmpty()) {
+            throw new ProductError("Product list is empty.");
+        } else {
+            for (Product product : productList) {
+                System.out.println("Product Id: " + product.getProductNumber() +
+                        " Product Name: " + product.getProductName() +
+                        " Product Price: " + product.getProductPrice() +
+                        " Product Stock: " + product.getProductStock());
+            }
+        }
+    }
+
+    public void searchOneProduct(String productName) {
+        boolean found = false;
+        for (Product product : productList) {
+            if (product.getProductName().equalsIgnoreCase(productName)) {
+                System.out.println("Product Id: " + product.getProductNumber() +
+                        " Product Name: " + product.getProductName() +
+                        " Product Price: " + product.getProductPrice() +
+                        " Product Stock: " + product.getProductStock());
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            System.out.println("Product not found.");
+        }
+    }
+
+    public boolean stockAvailable(String productName, double quantity) {
+        for (Product product : productList) {
+            if (product.getProductName().equalsIgnoreCase(productName) && product.getProductStock() >= quantity) {
+                return true;
+            }
+        }
+        throw new OutOfStock("Product is out of stock.");
+    }
+
+    public boolean creditsAvailable(Customer customer, String productName, double quantity) {
+        for (Product product : productList) {
+            if (product.getProductName().equalsIgnoreCase(productName)
+                    && customer.getCredit() >= product.getProductPrice() * quantity) {
+                return true;
+            }
+        }
+        throw new OutOfCredits("Insufficient credits.");
+    }
+
+    public void placeOrder(Customer customer, String productName, double quantity) {
+        try {
+            if (stockAvailable(productName, quantity) && creditsAvailable(customer, productName, quantity)) {
+                for (Product product : productList) {
+                    if (product.getProductName().equalsIgnoreCase(productName)) {
+                        product.setProductStock(product.getProductStock() - quantity);
+                        customer.setCredit(customer.getCredit() - product.getProductPrice() * quantity);
+                        Order order = new Order(customer, product, quantity);
+                        customer.addOrder(order);
+                        order.printInvoice();
+                        return;
+                    }
+                }
+            }
+        } catch (OutOfStock | OutOfCredits e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// BenchmarkRunner class
+// Runs the selected benchmarks once per thread count and writes one JSON result file per count
+// (jmh-threads-N.json), so runs can be compared against each other and against earlier results.
+// Usage: java -Dthreads=1,4,16 -cp benchmarks/target/benchmarks.jar bench.BenchmarkRunner [include regex]
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "bench\\..*";
+        for (String count : System.getProperty("threads", "1,4").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-threads-" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// CustomerBenchmarks class
+// Registration and login against a CustomerRegistry that already holds customerCount customers. The
+// registry is rebuilt every iteration, so the customers registered during one iteration do not
+// accumulate over the run.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CustomerBenchmarks {
+    @Param({"1000", "100000"})
+    public int customerCount;
+
+    private Object registry;
+    private String[] emails;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Throwable {
+        registry = (Object) Store.NEW_CUSTOMER_REGISTRY.invokeExact();
+        emails = new String[customerCount];
+        for (int i = 0; i < customerCount; i++) {
+            emails[i] = "customer-" + i + "@example.com";
+            Object customer = (Object) Store.NEW_CUSTOMER.invokeExact((long) i + 1, "customer-" + i, "secret",
+                    100.0, emails[i]);
+            // invoke rather than invokeExact: setup drops the Registration, so the call site returns void.
+            Store.REGISTER.invoke(registry, customer);
+        }
+    }
+
+    // Hands out names no other thread uses, so every register call succeeds.
+    @State(Scope.Thread)
+    public static class Visitor {
+        String prefix;
+        long nextId;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(ThreadParams thread) {
+            prefix = "visitor-" + thread.getThreadIndex() + "-";
+            nextId = (thread.getThreadIndex() + 1L) << 40;
+        }
+    }
+
+    @Benchmark
+    public Object register(Visitor visitor) throws Throwable {
+        long id = visitor.nextId++;
+        String name = visitor.prefix + id;
+        Object customer = (Object) Store.NEW_CUSTOMER.invokeExact(id, name, "secret", 100.0, name + "@example.com");
+        return (Object) Store.REGISTER.invokeExact(registry, customer);
+    }
+
+    @Benchmark
+    public Object login(Visitor visitor) throws Throwable {
+        String email = emails[visitor.next++ % customerCount];
+        return (Object) Store.LOGIN_BY_EMAIL.invokeExact(registry, email, "secret");
+    }
+}
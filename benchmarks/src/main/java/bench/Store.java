@@ -0,0 +1,112 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+// Store class
+// The store classes live in the default package. They cannot be imported from a named package, and JMH
+// refuses to generate benchmarks in the default package. So every store operation the benchmarks use is
+// looked up once, as a static final MethodHandle with store types widened to Object. The JIT treats such
+// handles as constants and inlines through them, so the bridge adds nothing measurable.
+final class Store {
+    static final MethodHandle NEW_PRODUCT =
+            constructor("Product", long.class, String.class, double.class, double.class);
+    static final MethodHandle NEW_CUSTOMER =
+            constructor("Customer", long.class, String.class, String.class, double.class, String.class);
+    static final MethodHandle NEW_CUSTOMER_REGISTRY = constructor("CustomerRegistry");
+
+    // ProductStore: hashed name index with striped stock locks.
+    static final MethodHandle NEW_PRODUCT_STORE = constructor("ProductStore", List.class);
+    static final MethodHandle PLACE_ORDER =
+            method("ProductStore", "placeOrder", type("Customer"), String.class, double.class);
+    static final MethodHandle SEARCH_ONE_PRODUCT = method("ProductStore", "searchOneProduct", String.class);
+    static final MethodHandle STOCK_AVAILABLE =
+            method("ProductStore", "stockAvailable", String.class, double.class);
+    static final MethodHandle CREDITS_AVAILABLE =
+            method("ProductStore", "creditsAvailable", type("Customer"), String.class, double.class);
+    static final MethodHandle GET_ALL_PRODUCT_LIST = method("ProductStore", "getAllProductList");
+
+    // ColumnarProductStore: the same operations over primitive columns.
+    static final MethodHandle NEW_COLUMNAR_STORE = constructor("ColumnarProductStore", int.class, boolean.class);
+    static final MethodHandle COLUMNAR_ADD_PRODUCT = method("ColumnarProductStore", "addProduct", type("Product"));
+    static final MethodHandle COLUMNAR_PLACE_ORDER =
+            method("ColumnarProductStore", "placeOrder", type("Customer"), String.class, double.class);
+    static final MethodHandle COLUMNAR_SEARCH_ONE_PRODUCT =
+            method("ColumnarProductStore", "searchOneProduct", String.class);
+    static final MethodHandle COLUMNAR_STOCK_AVAILABLE =
+            method("ColumnarProductStore", "stockAvailable", String.class, double.class);
+    static final MethodHandle COLUMNAR_CREDITS_AVAILABLE =
+            method("ColumnarProductStore", "creditsAvailable", type("Customer"), String.class, double.class);
+    static final MethodHandle COLUMNAR_GET_ALL_PRODUCT_LIST = method("ColumnarProductStore", "getAllProductList");
+
+    // LinearProductStore: the pre-index List<Product> scan, kept in the benchmarks as the reference.
+    static final MethodHandle NEW_LINEAR_STORE = constructor("LinearProductStore", List.class);
+    static final MethodHandle LINEAR_PLACE_ORDER =
+            method("LinearProductStore", "placeOrder", type("Customer"), String.class, double.class);
+    static final MethodHandle LINEAR_SEARCH_ONE_PRODUCT =
+            method("LinearProductStore", "searchOneProduct", String.class);
+    static final MethodHandle LINEAR_STOCK_AVAILABLE =
+            method("LinearProductStore", "stockAvailable", String.class, double.class);
+    static final MethodHandle LINEAR_CREDITS_AVAILABLE =
+            method("LinearProductStore", "creditsAvailable", type("Customer"), String.class, double.class);
+    static final MethodHandle LINEAR_GET_ALL_PRODUCT_LIST = method("LinearProductStore", "getAllProductList");
+
+    static final MethodHandle REGISTER = method("CustomerRegistry", "register", type("Customer"));
+    static final MethodHandle LOGIN_BY_EMAIL =
+            method("CustomerRegistry", "loginByEmail", String.class, String.class);
+
+    private Store() {
+    }
+
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Store class " + className + " is not on the class path", e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> storeClass) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(storeClass, MethodHandles.lookup());
+    }
+
+    private static MethodHandle constructor(String className, Class<?>... parameters) {
+        Class<?> storeClass = type(className);
+        try {
+            return widen(lookup(storeClass).findConstructor(storeClass, MethodType.methodType(void.class, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No constructor " + className + MethodType.methodType(void.class, parameters), e);
+        }
+    }
+
+    // The return type is looked up from the class itself, so callers only name the parameters.
+    private static MethodHandle method(String className, String name, Class<?>... parameters) {
+        Class<?> storeClass = type(className);
+        try {
+            Class<?> returnType = storeClass.getDeclaredMethod(name, parameters).getReturnType();
+            return widen(lookup(storeClass).findVirtual(storeClass, name, MethodType.methodType(returnType, parameters)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No method " + className + "." + name, e);
+        }
+    }
+
+    // Store types become Object so benchmark code can hold and pass them without naming them.
+    private static MethodHandle widen(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isStoreType(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isStoreType(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isStoreType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+}
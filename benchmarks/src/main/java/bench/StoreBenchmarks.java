@@ -0,0 +1,188 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// StoreBenchmarks class
+// Catalog hot paths on each store engine, over a range of catalog sizes. The linear engine is the old
+// List<Product> scan, kept as the baseline the other two are measured against. Thread count comes from JMH's
+// -t option or from BenchmarkRunner. Stock and credit are large enough that no order is ever refused,
+// and each thread orders as its own customer, so the runs measure the happy path without credit
+// contention. Receipts and listings go to a null stream.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class StoreBenchmarks {
+    private static final int LOOKUPS = 1024;
+
+    @Param({"linear", "indexed", "columnar"})
+    public String engine;
+
+    @Param({"1000", "100000"})
+    public int catalogSize;
+
+    private static final int INDEXED = 0;
+    private static final int COLUMNAR = 1;
+    private static final int LINEAR = 2;
+
+    // The engine param as a constant, so the benchmarks switch on an int rather than compare strings.
+    private int kind;
+    private Object store;
+    private final String[] names = new String[LOOKUPS];
+    private final String[] misspelledNames = new String[LOOKUPS];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        switch (engine) {
+            case "indexed":
+                kind = INDEXED;
+                break;
+            case "columnar":
+                kind = COLUMNAR;
+                break;
+            case "linear":
+                kind = LINEAR;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+        List<Object> products = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            products.add((Object) Store.NEW_PRODUCT.invokeExact((long) i + 1, "Product " + i, 10.0, 1e12));
+        }
+        switch (kind) {
+            case COLUMNAR:
+                store = (Object) Store.NEW_COLUMNAR_STORE.invokeExact(catalogSize, false);
+                for (Object product : products) {
+                    Store.COLUMNAR_ADD_PRODUCT.invokeExact(store, product);
+                }
+                break;
+            case LINEAR:
+                store = (Object) Store.NEW_LINEAR_STORE.invokeExact((List) products);
+                break;
+            default:
+                store = (Object) Store.NEW_PRODUCT_STORE.invokeExact((List) products);
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            String name = "Product " + random.nextInt(catalogSize);
+            names[i] = name;
+            // Swap two letters, the kind of typo the search suggestions are meant to catch
+            misspelledNames[i] = "Prodcut" + name.substring(7);
+        }
+    }
+
+    // Per-thread customer, replaced every iteration so order histories do not pile up across the run.
+    @State(Scope.Thread)
+    public static class Shopper {
+        Object customer;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void newCustomer() throws Throwable {
+            customer = (Object) Store.NEW_CUSTOMER.invokeExact(Thread.currentThread().getId(), "shopper",
+                    "secret", 1e13, "shopper@example.com");
+        }
+
+        int nextLookup() {
+            return next++ & (LOOKUPS - 1);
+        }
+    }
+
+    @Benchmark
+    public void placeOrder(Shopper shopper) throws Throwable {
+        String name = names[shopper.nextLookup()];
+        switch (kind) {
+            case COLUMNAR:
+                Store.COLUMNAR_PLACE_ORDER.invokeExact(store, shopper.customer, name, 1.0);
+                break;
+            case LINEAR:
+                Store.LINEAR_PLACE_ORDER.invokeExact(store, shopper.customer, name, 1.0);
+                break;
+            default:
+                Store.PLACE_ORDER.invokeExact(store, shopper.customer, name, 1.0);
+        }
+    }
+
+    @Benchmark
+    public void searchOneProduct(Shopper shopper) throws Throwable {
+        String name = names[shopper.nextLookup()];
+        switch (kind) {
+            case COLUMNAR:
+                Store.COLUMNAR_SEARCH_ONE_PRODUCT.invokeExact(store, name);
+                break;
+            case LINEAR:
+                Store.LINEAR_SEARCH_ONE_PRODUCT.invokeExact(store, name);
+                break;
+            default:
+                Store.SEARCH_ONE_PRODUCT.invokeExact(store, name);
+        }
+    }
+
+    // A miss: the indexed engine also looks for close matches to suggest.
+    @Benchmark
+    public void searchOneProductMisspelled(Shopper shopper) throws Throwable {
+        String name = misspelledNames[shopper.nextLookup()];
+        switch (kind) {
+            case COLUMNAR:
+                Store.COLUMNAR_SEARCH_ONE_PRODUCT.invokeExact(store, name);
+                break;
+            case LINEAR:
+                Store.LINEAR_SEARCH_ONE_PRODUCT.invokeExact(store, name);
+                break;
+            default:
+                Store.SEARCH_ONE_PRODUCT.invokeExact(store, name);
+        }
+    }
+
+    @Benchmark
+    public boolean stockAvailable(Shopper shopper) throws Throwable {
+        String name = names[shopper.nextLookup()];
+        switch (kind) {
+            case COLUMNAR:
+                return (boolean) Store.COLUMNAR_STOCK_AVAILABLE.invokeExact(store, name, 1.0);
+            case LINEAR:
+                return (boolean) Store.LINEAR_STOCK_AVAILABLE.invokeExact(store, name, 1.0);
+            default:
+                return (boolean) Store.STOCK_AVAILABLE.invokeExact(store, name, 1.0);
+        }
+    }
+
+    @Benchmark
+    public boolean creditsAvailable(Shopper shopper) throws Throwable {
+        String name = names[shopper.nextLookup()];
+        switch (kind) {
+            case COLUMNAR:
+                return (boolean) Store.COLUMNAR_CREDITS_AVAILABLE.invokeExact(store, shopper.customer, name, 1.0);
+            case LINEAR:
+                return (boolean) Store.LINEAR_CREDITS_AVAILABLE.invokeExact(store, shopper.customer, name, 1.0);
+            default:
+                return (boolean) Store.CREDITS_AVAILABLE.invokeExact(store, shopper.customer, name, 1.0);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void getAllProductList() throws Throwable {
+        switch (kind) {
+            case COLUMNAR:
+                Store.COLUMNAR_GET_ALL_PRODUCT_LIST.invokeExact(store);
+                break;
+            case LINEAR:
+                Store.LINEAR_GET_ALL_PRODUCT_LIST.invokeExact(store);
+                break;
+            default:
+                Store.GET_ALL_PRODUCT_LIST.invokeExact(store);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+// InventoryEventBusTest class
+// Publishing many times round a small ring must hand every subscriber every event, in order, even one
+// slow enough that publishers have to wait for it before reusing a slot.
+class InventoryEventBusTest {
+    private static final int RING_SIZE = 8;
+
+    // Copies out what it needs, since the slot is reused once onEvent returns.
+    private static final class Recorder implements InventoryEventBus.Subscriber {
+        final List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        final List<Double> deltas = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done;
+        final boolean slow;
+
+        Recorder(int events, boolean slow) {
+            this.done = new CountDownLatch(events);
+            this.slow = slow;
+        }
+
+        @Override
+        public void onEvent(InventoryEventBus.Event event, long sequence, boolean endOfBatch) {
+            if (slow) {
+                LockSupport.parkNanos(20_000);
+            }
+            sequences.add(sequence);
+            deltas.add(event.getDelta());
+            done.countDown();
+        }
+    }
+
+    @Test
+    void everySubscriberSeesEveryEventInOrderAcrossWraps() throws InterruptedException {
+        int events = RING_SIZE * 50;
+        Product product = new Product(1, "Laptop", 999.99, 1_000_000);
+        Recorder fast = new Recorder(events, false);
+        Recorder slow = new Recorder(events, true);
+        try (InventoryEventBus bus = new InventoryEventBus(RING_SIZE)) {
+            bus.subscribe("fast", fast, InventoryEventBus.WaitStrategy.BUSY_SPIN);
+            bus.subscribe("slow", slow, InventoryEventBus.WaitStrategy.BLOCKING);
+            for (int i = 0; i < events; i++) {
+                bus.publishStockChange(product, -i);
+            }
+            assertTrue(fast.done.await(10, TimeUnit.SECONDS), "fast subscriber fell behind");
+            assertTrue(slow.done.await(10, TimeUnit.SECONDS), "slow subscriber fell behind");
+            assertEquals(events - 1, bus.getCursor());
+        }
+        for (Recorder recorder : List.of(fast, slow)) {
+            assertEquals(events, recorder.sequences.size());
+            for (int i = 0; i < events; i++) {
+                assertEquals(i, recorder.sequences.get(i));
+                assertEquals(-i, recorder.deltas.get(i), 0);
+            }
+        }
+    }
+
+    @Test
+    void concurrentPublishersLoseNothing() throws InterruptedException {
+        int publishers = 4;
+        int perPublisher = RING_SIZE * 100;
+        Product product = new Product(1, "Laptop", 999.99, 1_000_000);
+        Recorder recorder = new Recorder(publishers * perPublisher, false);
+        try (InventoryEventBus bus = new InventoryEventBus(RING_SIZE)) {
+            bus.subscribe("recorder", recorder, InventoryEventBus.WaitStrategy.YIELDING);
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < publishers; p++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < perPublisher; i++) {
+                        bus.publishStockChange(product, -1);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(recorder.done.await(10, TimeUnit.SECONDS), "subscriber fell behind");
+        }
+        assertEquals(publishers * perPublisher, recorder.sequences.size());
+        for (int i = 0; i < recorder.sequences.size(); i++) {
+            assertEquals(i, recorder.sequences.get(i));
+        }
+    }
+}
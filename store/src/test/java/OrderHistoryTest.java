@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// OrderHistoryTest class
+// Orders spilled to the archive must page back in order, with every field as it was written, across
+// the boundary between archived blocks and the in-memory tail. A snapshot loaded with an archive spills
+// as it loads.
+class OrderHistoryTest {
+    @TempDir
+    Path directory;
+
+    private static Order order(long number) {
+        return new Order(number, 19000 + number, 42, "Customer " + number % 3, number % 5,
+                "Product é " + number, 1 + number % 4, 100 + number, (100 + number) * (1 + number % 4));
+    }
+
+    private static void assertSameOrder(Order expected, Order actual) {
+        assertEquals(expected.getOrderNumber(), actual.getOrderNumber());
+        assertEquals(expected.getEpochDay(), actual.getEpochDay());
+        assertEquals(expected.getCustomerId(), actual.getCustomerId());
+        assertEquals(expected.getCustomerName(), actual.getCustomerName());
+        assertEquals(expected.getProductId(), actual.getProductId());
+        assertEquals(expected.getProductName(), actual.getProductName());
+        assertEquals(expected.getQuantity(), actual.getQuantity(), 0);
+        assertEquals(expected.getUnitPriceMinorUnits(), actual.getUnitPriceMinorUnits());
+        assertEquals(expected.getTotalMinorUnits(), actual.getTotalMinorUnits());
+    }
+
+    @Test
+    void pagesReadBackSpilledAndRecentOrders() throws IOException {
+        int total = OrderHistory.RECENT_ORDERS + 3 * OrderHistory.BLOCK_ORDERS + 17;
+        List<Order> placed = new ArrayList<>();
+        try (OrderArchive archive = new OrderArchive(directory.resolve("orders.archive"))) {
+            OrderHistory history = new OrderHistory();
+            // Attached part way, so the first spill moves orders that were already in memory.
+            for (int i = 0; i < total; i++) {
+                if (i == OrderHistory.RECENT_ORDERS + OrderHistory.BLOCK_ORDERS + 5) {
+                    history.attach(archive);
+                }
+                Order order = order(i + 1);
+                placed.add(order);
+                history.add(order);
+            }
+            assertEquals(total, history.size());
+
+            // An odd page size, so pages straddle block boundaries.
+            List<Order> paged = new ArrayList<>();
+            String token = null;
+            do {
+                OrderHistory.Page page = history.page(token, 97);
+                paged.addAll(page.getOrders());
+                token = page.getNextToken();
+            } while (token != null);
+
+            assertEquals(total, paged.size());
+            for (int i = 0; i < total; i++) {
+                assertSameOrder(placed.get(total - 1 - i), paged.get(i));
+            }
+            List<Order> all = history.toList();
+            for (int i = 0; i < total; i++) {
+                assertSameOrder(placed.get(i), all.get(i));
+            }
+        }
+    }
+
+    @Test
+    void tokensStayValidWhileOrdersArrive() throws IOException {
+        try (OrderArchive archive = new OrderArchive(directory.resolve("orders.archive"))) {
+            OrderHistory history = new OrderHistory();
+            history.attach(archive);
+            for (int i = 0; i < OrderHistory.RECENT_ORDERS + OrderHistory.BLOCK_ORDERS; i++) {
+                history.add(order(i + 1));
+            }
+            OrderHistory.Page first = history.page(null, 10);
+            assertEquals(OrderHistory.RECENT_ORDERS + OrderHistory.BLOCK_ORDERS, first.getOrders().get(0).getOrderNumber());
+            for (int i = 0; i < OrderHistory.BLOCK_ORDERS; i++) {
+                history.add(order(OrderHistory.RECENT_ORDERS + OrderHistory.BLOCK_ORDERS + i + 1));
+            }
+            OrderHistory.Page second = history.page(first.getNextToken(), 10);
+            assertEquals(first.getOrders().get(9).getOrderNumber() - 1, second.getOrders().get(0).getOrderNumber());
+        }
+    }
+
+    @Test
+    void snapshotLoadSpillsIntoTheArchive() throws IOException {
+        int total = OrderHistory.RECENT_ORDERS + 3 * OrderHistory.BLOCK_ORDERS;
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 1, total));
+        ProductStore store = new ProductStore(products);
+        Customer ada = new Customer(7, "Ada", "secret", total, "ada@example.com");
+        for (int i = 0; i < total; i++) {
+            assertTrue(store.tryPlaceOrder(ada, "Laptop", 1).isAccepted());
+        }
+        Path file = directory.resolve("store.snapshot");
+        StoreSnapshot.write(store, List.of(ada), file);
+
+        try (OrderArchive archive = new OrderArchive(directory.resolve("orders.archive"))) {
+            OrderHistory history = StoreSnapshot.load(file, archive).getCustomers().get(0).getOrderHistory();
+            assertTrue(archive.sizeBytes() > 0, "loaded orders were not spilled");
+            assertEquals(total, history.size());
+            List<Order> placed = ada.getOrderHistory().toList();
+            List<Order> all = history.toList();
+            for (int i = 0; i < total; i++) {
+                assertSameOrder(placed.get(i), all.get(i));
+            }
+        }
+    }
+}
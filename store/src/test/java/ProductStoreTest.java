@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// ProductStoreTest class
+// Orders the store must turn away without touching stock or credit, listing tokens it must refuse, and
+// reservations that must lapse without each store leaving a thread behind.
+class ProductStoreTest {
+    private static ProductStore store() {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 10.0, 5));
+        return new ProductStore(products);
+    }
+
+    @Test
+    void rejectsQuantitiesThatAreNotPositiveNumbers() {
+        ProductStore store = store();
+        Customer customer = new Customer(1, "Ada", "secret", 950, "ada@example.com");
+        for (double quantity : new double[] {0, -3, Double.NaN, Double.POSITIVE_INFINITY}) {
+            OrderResult result = store.tryPlaceOrder(customer, "Laptop", quantity);
+            assertEquals(OrderResult.Status.INVALID_QUANTITY, result.getStatus(), "quantity " + quantity);
+        }
+        assertEquals(5, store.findProduct("Laptop").getProductStock(), 0);
+        assertEquals(95000, customer.getCreditLedger().getBalance());
+        assertTrue(customer.getOrderHistory().isEmpty());
+    }
+
+    @Test
+    void checkoutChecksStockPerProductNotPerLine() {
+        ProductStore store = store();
+        Customer customer = new Customer(1, "Ada", "secret", 950, "ada@example.com");
+        Cart cart = new Cart();
+        // Two spellings of one product, each within the stock on its own but not together.
+        cart.addLine("Laptop", 4);
+        cart.addLine(" laptop ", 4);
+        assertEquals(1, cart.getLines().size());
+        assertEquals(8, cart.getLines().get("laptop"), 0);
+        assertEquals(OrderResult.Status.OUT_OF_STOCK, store.checkout(customer, cart).getStatus());
+        assertEquals(5, store.findProduct("Laptop").getProductStock(), 0);
+        assertEquals(95000, customer.getCreditLedger().getBalance());
+    }
+
+    @Test
+    void checkoutRejectsLinesThatAreNotPositiveNumbers() {
+        ProductStore store = store();
+        Customer customer = new Customer(1, "Ada", "secret", 950, "ada@example.com");
+        Cart cart = new Cart();
+        cart.addLine("Laptop", 2);
+        cart.addLine("Laptop", -2);
+        assertEquals(OrderResult.Status.INVALID_QUANTITY, store.checkout(customer, cart).getStatus());
+        assertEquals(5, store.findProduct("Laptop").getProductStock(), 0);
+        assertFalse(cart.isEmpty());
+    }
+
+    @Test
+    void listingRejectsTokensPointingOutsideTheCatalog() {
+        ProductStore store = store();
+        Product laptop = store.findProduct("Laptop");
+        for (long offset : new long[] {-1, 2, Integer.MAX_VALUE + 1L}) {
+            String token = ProductPage.encodeToken(ProductPage.SortKey.INSERTION, offset, laptop);
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.listProducts(10, token, ProductPage.SortKey.INSERTION), "offset " + offset);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> store.listProducts(10, "not a token", ProductPage.SortKey.INSERTION));
+        String end = ProductPage.encodeToken(ProductPage.SortKey.INSERTION, 1, laptop);
+        assertTrue(store.listProducts(10, end, ProductPage.SortKey.INSERTION).getProducts().isEmpty());
+    }
+
+    @Test
+    void reservationsExpireOnOneWheelSharedByEveryStore() throws InterruptedException {
+        Customer customer = new Customer(1, "Ada", "secret", 950, "ada@example.com");
+        List<ProductStore> stores = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ProductStore store = store();
+            assertNotNull(store.reserve(customer, "Laptop", 2, 50));
+            stores.add(store);
+        }
+        long wheels = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("reservation-expiry"))
+                .count();
+        assertEquals(1, wheels);
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        for (ProductStore store : stores) {
+            Product laptop = store.findProduct("Laptop");
+            while (laptop.getProductStock() != 5 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(5, laptop.getProductStock(), 0, "reservation did not expire");
+            assertEquals(0, laptop.getReservedStock(), 0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> stores.get(0).reserve(customer, "Laptop", Double.NaN, 50));
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// StorePersistenceTest class
+// Crash recovery: a child JVM opens the store, makes changes and halts without closing anything, and
+// the store reopened here must hold every change the child saw accepted. The default catalog gets new
+// ids on every call, as in Main1, so a recovery that rebuilds it instead of restoring it loses orders.
+class StorePersistenceTest {
+    @TempDir
+    Path directory;
+
+    // Runs in the child JVM: args are the scenario and the directory.
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args[1]);
+        StorePersistence persistence = open(dir);
+        ProductStore store = persistence.getStore();
+        CustomerRegistry customers = persistence.getCustomers();
+        Customer ada = new Customer(IdGenerator.nextId(), "Ada", "secret", 100000, "ada@example.com");
+        customers.register(ada);
+        require(store.tryPlaceOrder(ada, "Laptop", 2).isAccepted());
+        if (args[0].equals("after-snapshot")) {
+            persistence.snapshotAsync().join();
+            Customer grace = new Customer(IdGenerator.nextId(), "Grace", "secret", 50000, "grace@example.com");
+            customers.register(grace);
+            store.addProduct(new Product(IdGenerator.nextId(), "Tablet", 300, 20));
+            require(store.tryPlaceOrder(grace, "Tablet", 3).isAccepted());
+            store.renameProduct(store.findProduct("Laptop").getProductNumber(), "Notebook");
+            store.repriceProduct(store.findProduct("Cycle").getProductNumber(), 11000);
+            require(customers.rename(ada, "Ada Lovelace"));
+            customers.changePassword(grace, "hopper");
+            require(store.tryPlaceOrder(grace, "Notebook", 1).isAccepted());
+        }
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static void require(boolean condition) {
+        if (!condition) {
+            Runtime.getRuntime().halt(2);
+        }
+    }
+
+    private static StorePersistence open(Path dir) throws IOException {
+        return StorePersistence.open(dir.resolve("store.snapshot"), dir.resolve("wal"), new CustomerRegistry(),
+                Main1::defaultCatalog);
+    }
+
+    private void crash(String scenario) throws IOException, InterruptedException {
+        String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(classPath);
+        command.add(StorePersistenceTest.class.getName());
+        command.add(scenario);
+        command.add(directory.toString());
+        Process child = new ProcessBuilder(command).inheritIO().redirectInput(new File("/dev/null")).start();
+        assertTrue(child.waitFor(60, TimeUnit.SECONDS), "child JVM did not finish");
+        assertEquals(0, child.exitValue(), "child JVM failed");
+    }
+
+    @Test
+    void recoversOrdersPlacedBeforeTheFirstSnapshot() throws Exception {
+        crash("before-snapshot");
+        try (StorePersistence persistence = open(directory)) {
+            Customer ada = persistence.getCustomers().findByEmail("ada@example.com");
+            assertNotNull(ada, "registration lost");
+            Product laptop = persistence.getStore().findProduct("Laptop");
+            assertEquals(138, laptop.getProductStock(), 0);
+            assertEquals(10000000 - 9000000, ada.getCreditLedger().getBalance());
+            List<Order> orders = ada.getOrderHistory().toList();
+            assertEquals(1, orders.size());
+            assertEquals(laptop.getProductNumber(), orders.get(0).getProductId());
+        }
+    }
+
+    @Test
+    void recoversCustomersAndCatalogChangesMadeAfterASnapshot() throws Exception {
+        crash("after-snapshot");
+        try (StorePersistence persistence = open(directory)) {
+            ProductStore store = persistence.getStore();
+            CustomerRegistry customers = persistence.getCustomers();
+
+            assertNull(store.findProduct("Laptop"));
+            Product notebook = store.findProduct("Notebook");
+            assertEquals(137, notebook.getProductStock(), 0);
+            assertEquals(11000, store.findProduct("Cycle").getProductPrice(), 0);
+            Product tablet = store.findProduct("Tablet");
+            assertNotNull(tablet, "added product lost");
+            assertEquals(17, tablet.getProductStock(), 0);
+
+            Customer ada = customers.findByName("Ada Lovelace");
+            assertNotNull(ada, "rename lost");
+            assertEquals(1, ada.getOrderHistory().size());
+            Customer grace = customers.loginByEmail("grace@example.com", "hopper");
+            assertNotNull(grace, "registration or password change lost");
+            assertEquals(5000000 - 90000 - 4500000, grace.getCreditLedger().getBalance());
+            List<Order> orders = grace.getOrderHistory().toList();
+            assertEquals(2, orders.size());
+            assertEquals(tablet.getProductNumber(), orders.get(0).getProductId());
+            assertEquals("Notebook", orders.get(1).getProductName());
+            assertEquals(notebook.getProductNumber(), orders.get(1).getProductId());
+        }
+    }
+}
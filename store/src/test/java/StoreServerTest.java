@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+// StoreServerTest class
+// Numbers a client sends must be checked at the protocol boundary: a bad quantity, credit or
+// reservation length is answered with ERR and leaves the store as it was.
+class StoreServerTest {
+    private static String request(BufferedReader in, OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        String status = in.readLine();
+        if (status.startsWith("OK")) {
+            int lines = Integer.parseInt(status.split("\t")[1]);
+            for (int i = 0; i < lines; i++) {
+                in.readLine();
+            }
+        }
+        return status;
+    }
+
+    @Test
+    void rejectsQuantitiesCreditAndReservationLengthsOutOfRange() throws IOException {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 10.0, 5));
+        ProductStore store = new ProductStore(products);
+        CustomerRegistry customers = new CustomerRegistry();
+        try (StoreServer server = new StoreServer(store, customers, 0).start();
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+
+            for (String credit : new String[] {"-1", "NaN", "Infinity", "1e300"}) {
+                assertTrue(request(in, out, "REGISTER\tAda\tada@example.com\tsecret\t" + credit).startsWith("ERR"),
+                        "credit " + credit);
+            }
+            assertEquals(0, customers.size());
+            assertTrue(request(in, out, "REGISTER\tAda\tada@example.com\tsecret\t100").startsWith("OK"));
+            assertTrue(request(in, out, "LOGIN\tada@example.com\tsecret").startsWith("OK"));
+
+            for (String quantity : new String[] {"0", "-2", "NaN", "Infinity"}) {
+                assertTrue(request(in, out, "PURCHASE\tLaptop\t" + quantity).startsWith("ERR"), "quantity " + quantity);
+                assertTrue(request(in, out, "RESERVE\tLaptop\t" + quantity).startsWith("ERR"), "quantity " + quantity);
+            }
+            for (String seconds : new String[] {"0", "-5", "86401", Long.toString(Long.MAX_VALUE / 1000 + 1)}) {
+                assertTrue(request(in, out, "RESERVE\tLaptop\t1\t" + seconds).startsWith("ERR"), "seconds " + seconds);
+            }
+            assertEquals(5, store.findProduct("Laptop").getProductStock(), 0);
+            assertEquals(10000, customers.findByName("Ada").getCreditLedger().getBalance());
+            assertTrue(request(in, out, "PURCHASE\tLaptop\t2").startsWith("OK"));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// StoreSnapshotTest class
+// A snapshot written after products and customers were renamed and repriced must load with the new
+// names and prices on the catalog and the customer, and the purchase-time ones on the orders. Later
+// snapshots append only the new orders to the orders file.
+class StoreSnapshotTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void ordersKeepPurchaseTimeNamesAndPricesAcrossRenames() throws IOException {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 999.99, 10));
+        products.add(new Product(2, "Phone", 199.5, 10));
+        ProductStore store = new ProductStore(products);
+        CustomerRegistry customers = new CustomerRegistry();
+        Customer ada = new Customer(7, "Ada", "secret", 5000, "ada@example.com");
+        customers.register(ada);
+
+        assertTrue(store.tryPlaceOrder(ada, "Laptop", 2).isAccepted());
+        assertTrue(store.tryPlaceOrder(ada, "Phone", 1).isAccepted());
+        store.renameProduct(1, "Notebook");
+        store.repriceProduct(2, 149.0);
+        assertTrue(customers.rename(ada, "Ada Lovelace"));
+
+        Path file = directory.resolve("store.snapshot");
+        StoreSnapshot.write(store, customers.getCustomers(), file);
+        StoreSnapshot snapshot = StoreSnapshot.load(file);
+        ProductStore loaded = snapshot.getStore();
+
+        assertNull(loaded.findProduct("Laptop"));
+        assertEquals(1, loaded.findProduct("Notebook").getProductNumber());
+        assertEquals(8, loaded.findProduct("Notebook").getProductStock(), 1e-9);
+        assertEquals(149.0, loaded.findProductById(2).getProductPrice(), 1e-9);
+
+        assertEquals(1, snapshot.getCustomers().size());
+        Customer loadedAda = snapshot.getCustomers().get(0);
+        assertEquals("Ada Lovelace", loadedAda.getCustomerName());
+        assertEquals(ada.getCreditLedger().getBalance(), loadedAda.getCreditLedger().getBalance());
+
+        List<Order> orders = loadedAda.getOrderHistory().toList();
+        assertEquals(2, orders.size());
+        Order laptops = orders.get(0);
+        assertEquals("Laptop", laptops.getProductName());
+        assertEquals("Ada", laptops.getCustomerName());
+        assertEquals(99999, laptops.getUnitPriceMinorUnits());
+        assertEquals(199998, laptops.getTotalMinorUnits());
+        Order phone = orders.get(1);
+        assertEquals("Phone", phone.getProductName());
+        assertEquals(19950, phone.getUnitPriceMinorUnits());
+        assertEquals(ada.getOrderHistory().toList().get(1).getOrderNumber(), phone.getOrderNumber());
+    }
+
+    @Test
+    void checkpointIsZeroWithoutALog() throws IOException {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 999.99, 10));
+        Path file = directory.resolve("store.snapshot");
+        StoreSnapshot.write(new ProductStore(products), new ArrayList<>(), file);
+        assertEquals(0, StoreSnapshot.load(file).getLogCheckpoint());
+    }
+
+    @Test
+    void laterSnapshotsAppendOnlyNewOrders() throws IOException {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 999.99, 1000));
+        ProductStore store = new ProductStore(products);
+        CustomerRegistry customers = new CustomerRegistry();
+        Customer ada = new Customer(7, "Ada", "secret", 1e7, "ada@example.com");
+        customers.register(ada);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.tryPlaceOrder(ada, "Laptop", 1).isAccepted());
+        }
+
+        Path file = directory.resolve("store.snapshot");
+        Path orders = StoreSnapshot.ordersFile(file, 1);
+        StoreSnapshot.write(store, customers.getCustomers(), file);
+        long first = Files.size(orders);
+        assertTrue(store.tryPlaceOrder(ada, "Laptop", 1).isAccepted());
+        StoreSnapshot.write(store, customers.getCustomers(), file);
+        long grown = Files.size(orders) - first;
+        assertTrue(grown > 0 && grown < first / 50, "the second snapshot rewrote old orders");
+
+        List<Order> loaded = StoreSnapshot.load(file).getCustomers().get(0).getOrderHistory().toList();
+        assertEquals(101, loaded.size());
+        assertEquals(ada.getOrderHistory().toList().get(100).getOrderNumber(), loaded.get(100).getOrderNumber());
+    }
+
+    @Test
+    void snapshotOfADifferentStoreStartsANewOrdersFile() throws IOException {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 999.99, 1000));
+        Path file = directory.resolve("store.snapshot");
+        ProductStore store = new ProductStore(products);
+        Customer ada = new Customer(7, "Ada", "secret", 1e7, "ada@example.com");
+        assertTrue(store.tryPlaceOrder(ada, "Laptop", 1).isAccepted());
+        assertTrue(store.tryPlaceOrder(ada, "Laptop", 1).isAccepted());
+        StoreSnapshot.write(store, List.of(ada), file);
+
+        // Same customer id with a shorter history: the old orders file cannot be continued.
+        Customer other = new Customer(7, "Ada", "secret", 1e7, "ada@example.com");
+        assertTrue(store.tryPlaceOrder(other, "Laptop", 3).isAccepted());
+        StoreSnapshot.write(store, List.of(other), file);
+
+        assertFalse(Files.exists(StoreSnapshot.ordersFile(file, 1)));
+        assertTrue(Files.exists(StoreSnapshot.ordersFile(file, 2)));
+        List<Order> loaded = StoreSnapshot.load(file).getCustomers().get(0).getOrderHistory().toList();
+        assertEquals(1, loaded.size());
+        assertEquals(3, loaded.get(0).getQuantity(), 0);
+    }
+}
@@ -0,0 +1,54 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+// TimingWheelTest class
+// Items must expire once, no earlier than their deadline, whichever level of the wheel they start on.
+class TimingWheelTest {
+    @Test
+    void expiresEachItemAfterItsDeadlineAcrossLevels() throws InterruptedException {
+        // 10 ms ticks on an 8-slot wheel: level 0 covers 80 ms, level 1 640 ms, so these delays start on
+        // all three levels and the longer ones have to cascade down.
+        long[] delays = {0, 15, 70, 95, 300, 700, 1200};
+        Map<Integer, Long> expiredAt = new ConcurrentHashMap<>();
+        Map<Integer, Long> deadlines = new ConcurrentHashMap<>();
+        AtomicInteger expiries = new AtomicInteger();
+        CountDownLatch expired = new CountDownLatch(delays.length);
+        try (TimingWheel<Integer> wheel = new TimingWheel<>("test-wheel", 10, 8, 3, item -> {
+            expiredAt.putIfAbsent(item, TimingWheel.now());
+            expiries.incrementAndGet();
+            expired.countDown();
+        })) {
+            for (int i = 0; i < delays.length; i++) {
+                deadlines.put(i, wheel.schedule(i, delays[i]).deadlineMillis);
+            }
+            assertTrue(expired.await(5, TimeUnit.SECONDS), "not every item expired");
+            // Give a duplicate expiry a chance to show up.
+            Thread.sleep(100);
+        }
+        assertEquals(delays.length, expiries.get(), "an item expired more than once");
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(expiredAt.get(i) >= deadlines.get(i), "item " + i + " expired early");
+        }
+    }
+
+    @Test
+    void cancelledItemsNeverExpire() throws InterruptedException {
+        CountDownLatch kept = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        try (TimingWheel<String> wheel = new TimingWheel<>("test-wheel", 10, 8, item -> {
+            (item.equals("kept") ? kept : cancelled).countDown();
+        })) {
+            wheel.schedule("cancelled", 50).cancel();
+            wheel.schedule("kept", 100);
+            assertTrue(kept.await(5, TimeUnit.SECONDS));
+            assertFalse(cancelled.await(100, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// WriteAheadLogTest class
+// Orders, registrations and catalog changes logged through a store, compacted and replayed into a
+// fresh store must leave the same catalog, customers, stock, credit and order history as the store
+// that took them.
+class WriteAheadLogTest {
+    // Small segments, so a few dozen orders span several of them and compaction has work to do.
+    private static final int SEGMENT_BYTES = 1024;
+
+    @TempDir
+    Path directory;
+
+    private static List<Product> catalog() {
+        List<Product> products = new ArrayList<>();
+        products.add(new Product(1, "Laptop", 999.99, 1000));
+        products.add(new Product(2, "Phone", 199.5, 1000));
+        products.add(new Product(3, "Cable", 4.25, 1000));
+        return products;
+    }
+
+    private static CustomerRegistry customers() {
+        CustomerRegistry customers = new CustomerRegistry();
+        customers.register(new Customer(1, "Ada", "secret", 1e7, "ada@example.com"));
+        customers.register(new Customer(2, "Grace", "secret", 1e7, "grace@example.com"));
+        return customers;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    void replayAfterCompactionRestoresStockCreditAndOrders() throws IOException {
+        ProductStore store = new ProductStore(catalog());
+        CustomerRegistry customers = customers();
+        String[] names = {"Laptop", "Phone", "Cable"};
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1, SEGMENT_BYTES, 1)) {
+            store.setWriteAheadLog(log);
+            for (int i = 0; i < 60; i++) {
+                Customer customer = customers.findById(1 + i % 2);
+                assertTrue(store.tryPlaceOrder(customer, names[i % 3], 1 + i % 4).isAccepted());
+                if (i == 30) {
+                    long before = segmentCount();
+                    log.compact();
+                    assertTrue(segmentCount() < before, "compaction should fold the sealed segments");
+                }
+            }
+            log.compact();
+        }
+
+        ProductStore restored = new ProductStore(catalog());
+        CustomerRegistry restoredCustomers = customers();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1, SEGMENT_BYTES, 1)) {
+            log.replay(WriteAheadLog.applyTo(restored, restoredCustomers));
+        }
+
+        for (Product product : store.getProducts()) {
+            assertEquals(product.getProductStock(),
+                    restored.findProductById(product.getProductNumber()).getProductStock(), 1e-9);
+        }
+        for (Customer customer : customers.getCustomers()) {
+            Customer replayed = restoredCustomers.findById(customer.getCustomerId());
+            assertEquals(customer.getCreditLedger().getBalance(), replayed.getCreditLedger().getBalance());
+            List<Order> expected = customer.getOrderHistory().toList();
+            List<Order> actual = replayed.getOrderHistory().toList();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getOrderNumber(), actual.get(i).getOrderNumber());
+                assertEquals(expected.get(i).getProductName(), actual.get(i).getProductName());
+                assertEquals(expected.get(i).getTotalMinorUnits(), actual.get(i).getTotalMinorUnits());
+            }
+        }
+    }
+
+    @Test
+    void replayFromCheckpointSkipsTruncatedSegments() throws IOException {
+        ProductStore store = new ProductStore(catalog());
+        CustomerRegistry customers = customers();
+        Customer ada = customers.findById(1);
+        long checkpoint;
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1, SEGMENT_BYTES, 1)) {
+            store.setWriteAheadLog(log);
+            store.tryPlaceOrder(ada, "Laptop", 2);
+            checkpoint = log.checkpoint();
+            log.truncateBefore(checkpoint);
+            store.tryPlaceOrder(ada, "Phone", 3);
+        }
+
+        // The restored store stands in for a snapshot taken at the checkpoint: it already has the laptops.
+        List<Product> products = catalog();
+        products.get(0).setProductStock(998);
+        ProductStore restored = new ProductStore(products);
+        CustomerRegistry restoredCustomers = customers();
+        try (WriteAheadLog log = new WriteAheadLog(directory, checkpoint, SEGMENT_BYTES, 1)) {
+            log.replay(WriteAheadLog.applyTo(restored, restoredCustomers), checkpoint);
+        }
+
+        assertEquals(998, restored.findProductById(1).getProductStock(), 1e-9);
+        assertEquals(997, restored.findProductById(2).getProductStock(), 1e-9);
+        List<Order> orders = restoredCustomers.findById(1).getOrderHistory().toList();
+        assertEquals(1, orders.size());
+        assertEquals("Phone", orders.get(0).getProductName());
+    }
+
+    @Test
+    void compactionKeepsCustomersAndProductsAheadOfTheirOrders() throws IOException {
+        ProductStore store = new ProductStore(catalog());
+        CustomerRegistry customers = new CustomerRegistry();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1, SEGMENT_BYTES, 1)) {
+            store.setWriteAheadLog(log);
+            customers.setWriteAheadLog(log);
+            for (int i = 0; i < 20; i++) {
+                Customer customer = new Customer(100 + i, "Customer " + i, "secret", 1e6, i + "@example.com");
+                assertEquals(CustomerRegistry.Registration.REGISTERED, customers.register(customer));
+                store.addProduct(new Product(100 + i, "Gadget " + i, 10 + i, 50));
+                assertTrue(store.tryPlaceOrder(customer, "Gadget " + i, 2).isAccepted());
+                store.renameProduct(100 + i, "Widget " + i);
+            }
+            customers.rename(customers.findById(100), "First");
+            log.compact();
+        }
+
+        ProductStore restored = new ProductStore(catalog());
+        CustomerRegistry restoredCustomers = new CustomerRegistry();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1, SEGMENT_BYTES, 1)) {
+            log.replay(WriteAheadLog.applyTo(restored, restoredCustomers));
+        }
+
+        assertEquals(20, restoredCustomers.size());
+        assertEquals(100, restoredCustomers.findByName("First").getCustomerId());
+        for (int i = 0; i < 20; i++) {
+            Product widget = restored.findProduct("Widget " + i);
+            assertEquals(100 + i, widget.getProductNumber());
+            assertEquals(48, widget.getProductStock(), 0);
+            Customer customer = restoredCustomers.findById(100 + i);
+            assertEquals(customers.findById(100 + i).getCreditLedger().getBalance(),
+                    customer.getCreditLedger().getBalance());
+            assertEquals("Gadget " + i, customer.getOrderHistory().toList().get(0).getProductName());
+        }
+    }
+}